@@ -35,4 +35,68 @@ $star_rating.on('click', function() {
   return SetRatingStar();
 });
 
-SetRatingStar();
\ No newline at end of file
+SetRatingStar();
+
+// polls a background search until it is finished, then lets the page collect
+// its results
+var pollSearch = function(url, collectButton) {
+  $.getJSON(url).done(function(data) {
+    if (data.status == 'pending') {
+      window.setTimeout(function() {
+        pollSearch(url, collectButton);
+      }, 250);
+    } else {
+      document.getElementById(collectButton).click();
+    }
+  }).fail(function() {
+    document.getElementById(collectButton).click();
+  });
+};
+
+// suggests tags for the tag typed last into a field, the field's
+// data-suggest-tags attribute holds the url to ask; choosing a suggestion
+// completes the tag, or selects it in the list named by data-suggest-for
+$('[data-suggest-tags]').each(function() {
+  var $field = $(this);
+  var $anchor = $field.closest('.input-group');
+  var $suggestions = $('<div class="tag-suggestions"></div>').insertAfter($anchor.length ? $anchor : $field);
+
+  var lastTag = function() {
+    var lines = $field.val().split(/\r?\n/);
+    return $.trim(lines[lines.length - 1]);
+  };
+
+  var choose = function(tag) {
+    var list = $field.data('suggest-for');
+    if (list) {
+      $(document.getElementById(list)).val(tag);
+      $field.val(tag);
+    } else {
+      var lines = $field.val().split(/\r?\n/);
+      lines[lines.length - 1] = tag;
+      $field.val(lines.join('\n'));
+    }
+    $suggestions.empty();
+    $field.focus();
+  };
+
+  $field.on('input', function() {
+    var prefix = lastTag();
+    if (prefix.length == 0) {
+      $suggestions.empty();
+      return;
+    }
+    $.getJSON($field.data('suggest-tags'), {prefix: prefix}).done(function(tags) {
+      // the user typed on while the suggestions were on their way
+      if (lastTag() != prefix) {
+        return;
+      }
+      $suggestions.empty();
+      $.each(tags, function(i, tag) {
+        $('<button type="button" class="btn btn-default btn-xs"></button>').text(tag).on('click', function() {
+          choose(tag);
+        }).appendTo($suggestions);
+      });
+    });
+  });
+});
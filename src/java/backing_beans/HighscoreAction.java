@@ -55,7 +55,7 @@ public class HighscoreAction implements Serializable {
 
         for (Round round : rounds) {
             Question highscoreQuestion = QuestionDatabaseAccess.getQuestionById(new Question(round.getQuestionId()));
-            User highscoreUser = UserDatabaseAccess.getById(new User(round.getUserId()));
+            User highscoreUser = UserDatabaseAccess.getSummaryById(round.getUserId());
             Highscore highscoreEntry = new Highscore();
             highscoreEntry.setDuration((int) round.getDuration());
             highscoreEntry.setNickname(highscoreUser.getNickname());
@@ -88,8 +88,7 @@ public class HighscoreAction implements Serializable {
 
         List<User> users = UserDatabaseAccess.getBestPlayers();
 
-        for (User user : users) {
-            User highscoreUser = UserDatabaseAccess.getById(new User(user.getId()));
+        for (User highscoreUser : users) {
             Highscore highscoreEntry = new Highscore();
             highscoreEntry.setNickname(highscoreUser.getNickname());
             highscoreEntry.setXp(highscoreUser.getXp());
@@ -122,22 +121,10 @@ public class HighscoreAction implements Serializable {
 
             boolean needToBePass = false;
 
-            List<Integer> playedRoundIds = RoundsDatabaseAccess.getRoundIdsByUserId(session.getCurrentUserId(),
+            // ids of the questions the player has played
+            List<Integer> playedQuestionIds = RoundsDatabaseAccess.getRoundIdsByUserId(session.getCurrentUserId(),
                     needToBePass);
-            // if player hasn't answered any questions, not allowed to say any
-            // how tos
-            if (playedRoundIds.isEmpty()) {
-                allowed = false;
-            } else {
-                List<Round> playedRounds = RoundsDatabaseAccess.getRoundsByUserId(session.getCurrentUserId(), needToBePass);
-
-                for (Round round : playedRounds) {
-
-                    if (round.getQuestionId() == highscoreEntry.getQuestionId()) {
-                        allowed = true;
-                    }
-                }
-            }
+            allowed = playedQuestionIds.contains(highscoreEntry.getQuestionId());
 
         }
 
@@ -140,14 +140,11 @@ public class QuestionAction implements Serializable {
             session.setInfo(StringProvider.getString("questRem"));
             result = "success";
 
-            // if questionToRemove was a follow up question which predecessor is
-            // still an active question, the predecessor has to be updated
-            if (questionToRemove.isHas_follow_up_question() && questionToRemove.getPrevious_question_id() != 0) {
-                Question predecessor = QuestionDatabaseAccess.getQuestionById(new Question(questionToRemove
-                        .getPrevious_question_id()));
-                predecessor.setHas_follow_up_question(false);
-                QuestionDatabaseAccess.update(predecessor);
-
+            // if questionToRemove was a follow up question, the predecessor
+            // lost its follow ups; the follow ups of questionToRemove have
+            // been removed along with it
+            if (questionToRemove.getPrevious_question_id() != 0) {
+                QuestionDatabaseAccess.removeFollowUp(questionToRemove.getPrevious_question_id());
             }
 
         } else {
@@ -257,20 +254,18 @@ public class QuestionAction implements Serializable {
         if (!newTag.equals("")) {
             QuestionTag toAdd = new QuestionTag(question.getId(), newTag.toLowerCase());
 
-            // load tags currently in db
-            questionTags = TagsDatabaseAccess.getTagsByQuestionId(question.getId());
+            // the store is refused, if the question already has this tag
+            QuestionTag added = TagsDatabaseAccess.store(toAdd);
 
-            if (questionTags.contains(toAdd)) {
+            if (added == null) {
                 session.setError(StringProvider.getString("noChanges"));
                 session.setError(StringProvider.getString("tagExists"));
                 result = "fail";
             }
 
             else {
-                toAdd = TagsDatabaseAccess.store(toAdd);
-                if (toAdd != null)
-                    // update so that all new tags are displayed
-                    questionTags = TagsDatabaseAccess.getTagsByQuestionId(question.getId());
+                // update so that all new tags are displayed
+                questionTags.add(added);
                 session.setInfo(StringProvider.getString("succChanges"));
                 result = "success";
             }
@@ -335,32 +330,17 @@ public class QuestionAction implements Serializable {
     }
 
     /**
-     * Changes a questions difficulty rating. (simple method, could be improved
-     * by storing the number for every rating value in the db)
+     * Adds the requested rating to a question's difficulty rating.
      * 
      * @return the new Rating
      * @throws ApplicationException
      */
     public static float changeRating(Question questionToRate) throws ApplicationException {
-        float newRating = Float.valueOf(FacesContext.getCurrentInstance().getExternalContext()
+        float rating = Float.valueOf(FacesContext.getCurrentInstance().getExternalContext()
                 .getRequestParameterMap()
                 .get("rating"));
 
-        float oldRating = questionToRate.getDifficultyRating();
-        float ratingCounter = questionToRate.getRatingCounter();
-
-        if (oldRating < newRating & ratingCounter != 0) {
-            newRating = oldRating + newRating / ratingCounter;
-        }
-        if (oldRating > newRating & ratingCounter != 0) {
-            newRating = oldRating - newRating / ratingCounter;
-        }
-
-        questionToRate.setDifficultyRating(newRating);
-        questionToRate.setRatingCounter(+1);
-        questionToRate = QuestionDatabaseAccess.update(questionToRate);
-
-        return newRating;
+        return QuestionDatabaseAccess.addRating(questionToRate, rating);
     }
 
     protected String[] splitByNewLine(String urls) {
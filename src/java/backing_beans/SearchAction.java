@@ -1,33 +1,32 @@
 package cgwap.backing_beans;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.faces.bean.ManagedBean;
 import javax.faces.bean.ManagedProperty;
 import javax.faces.bean.ViewScoped;
 
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
 import org.joda.time.DateTime;
 import org.joda.time.Seconds;
 
-import cgwap.data_access.AnswersDatabaseAccess;
 import cgwap.data_access.QuestionDatabaseAccess;
 import cgwap.data_access.RoundsDatabaseAccess;
 import cgwap.data_access.SearchQueryDatabaseAccess;
-import cgwap.data_access.TagsDatabaseAccess;
+import cgwap.data_access.TagCatalog;
 import cgwap.entities.Answer;
 import cgwap.entities.Question;
 import cgwap.entities.QuestionTag;
@@ -35,9 +34,18 @@ import cgwap.entities.Result;
 import cgwap.entities.Round;
 import cgwap.entities.SearchQuery;
 import cgwap.entities.User;
+import cgwap.enums.UserLevel;
 import cgwap.util.Config;
+import cgwap.util.europeana.QuotaExceededException;
+import cgwap.util.europeana.RecordIds;
+import cgwap.util.europeana.RequestQuota.Priority;
+import cgwap.util.europeana.SearchCache;
+import cgwap.util.europeana.SearchExecutor;
+import cgwap.util.europeana.SearchKey;
 import cgwap.util.exception_handler.ApplicationException;
 import cgwap.util.i18n.StringProvider;
+import cgwap.util.local_search.LocalSearchIndex;
+import cgwap.util.session.QuestionQueue;
 import cgwap.util.session.SessionBean;
 import cgwap.util.xp_calculator.XpCalculator;
 
@@ -65,6 +73,10 @@ public class SearchAction implements Serializable {
     protected boolean isQuestionHasFollowUpQuestion = false;
     protected List<Result> matches = new LinkedList<Result>();
     protected List<Answer> answers = new LinkedList<Answer>();
+    // record ids of the answers, guesses are looked up here
+    protected HashSet<String> answerIds = new HashSet<String>();
+    // follow ups of the current question, loaded together with it
+    protected LinkedList<Question> followUps = new LinkedList<Question>();
 
     // For playing.
     protected SearchQuery searchQuery = new SearchQuery();
@@ -74,6 +86,19 @@ public class SearchAction implements Serializable {
     protected Result[] results = new Result[NUMBER_OF_RESULTS];
     protected boolean useFilter = false;
     protected boolean hasResults = false;
+    // ticket of the search running in the background, see PendingSearches
+    protected String searchTicket;
+    // the current search and the page of its results shown
+    protected SearchKey currentSearch;
+    protected int page = 0;
+    protected boolean hasMoreResults = false;
+    // pages seen or prefetched, least recently shown first
+    protected LinkedHashMap<Integer, Result[]> pages = new LinkedHashMap<Integer, Result[]>(16, 0.75f, true);
+    // ticket of the next page, prefetched in the background
+    protected String prefetchTicket;
+    // 1 if the first page holds the results of the local search index, the
+    // pages of Europeana follow it then
+    protected int localPages = 0;
     protected boolean isMatch = false;
 
     // let's users only rate once
@@ -92,27 +117,6 @@ public class SearchAction implements Serializable {
     // Displaying a match.
     protected Result matchingResult = new Result();
 
-    // Request Parameters
-    protected static final String URL = Config.REQUEST_URL;
-    protected static final String KEY = Config.REQUEST_KEY;
-    protected static final String PROFILE = Config.REQUEST_PROFILE;
-    protected static final String FILTER = Config.REQUEST_FILTER;
-    protected static final String ROWS = Config.REQUEST_ROWS;
-    protected static final String QUERY = Config.REQUEST_QUERY;
-
-    // Response Parameters
-    protected static final String ITEMS = Config.RESPONSE_ITEMS;
-    protected static final String PREVIEW = Config.ITEM_PREVIEW;
-    protected static final String TITLE = Config.ITEM_TITLE;
-    protected static final String TYPE = Config.ITEM_TYPE;
-    protected static final String LINK = Config.ITEM_LINK;
-    protected static final String ID = Config.ITEM_ID;
-    protected static final String DESCRIPTION = Config.ITEM_DESCRIPTION;
-    protected static final String TEXT = Config.TYPE_TEXT;
-    protected static final String IMAGE = Config.TYPE_IMAGE;
-    protected static final String VIDEO = Config.TYPE_VIDEO;
-    protected static final String SOUND = Config.TYPE_SOUND;
-
     protected String countryFilter = "";
     protected String typeFilter = "";
     protected String languageFilter = "";
@@ -197,12 +201,7 @@ public class SearchAction implements Serializable {
      * @throws ApplicationException
      */
     public List<QuestionTag> loadTags() throws ApplicationException {
-
-       
-        List<QuestionTag> result = TagsDatabaseAccess.fetch(true);
-        java.util.Collections.sort(result);
-        result.add(0, new QuestionTag(Config.DEFAULT_TAG));
-        return result;
+        return TagCatalog.getInstance().getTags();
     }
 
     /**
@@ -218,41 +217,36 @@ public class SearchAction implements Serializable {
         livesLeft = NUMBER_OF_GUESSES;
         currentRound = new Round();
         isMatch = false;
-        results = new Result[NUMBER_OF_RESULTS];
-        hasResults = false;
+        clearResults();
         searchQuery = new SearchQuery();
 
-        Random randomizer = new Random();
-        Question randomQuestion = new Question();
-
-        // if tag is selected, select question accordingly (disregarding the
-        // ones entered or already answered by the current player, or the ones
-        // reported more than 3 times, deleted or followUps)
-        
-        
+        // if tag is selected, select question accordingly; the queue holds
+        // no questions entered or already answered by the current player,
+        // reported more than 3 times, deleted or followUps
+        String tag = null;
         if (!(tagToChooseQuestionBy.equals(Config.DEFAULT_TAG) || tagToChooseQuestionBy.equals(""))) {
+            tag = tagToChooseQuestionBy;
+        }
+        QuestionQueue queue = session.getQuestionQueue(tag);
+        UserLevel level = session.getCurrentUserLevel();
 
-            // get ids for tag
-            List<QuestionTag> idsToChooseFrom = TagsDatabaseAccess.getQuestionIdsByTag(tagToChooseQuestionBy,
-                    session.getCurrentUserId());
-            idsToChooseFrom = filterUserQuestions(idsToChooseFrom);
-            if (!idsToChooseFrom.isEmpty()) {
-                QuestionTag random = idsToChooseFrom.get(randomizer.nextInt(idsToChooseFrom.size()));
-                randomQuestion = new Question(random.getQuestionId());
-                randomQuestion = QuestionDatabaseAccess.getQuestionById(randomQuestion);
-            }
-            // no tag, select random question (disregarding the ones entered or
-            // already answered by
-            // the current player, or the ones reported more than 3 times,
-            // deleted or followUps)
-        } else {
-            List<Question> questionsToChooseFrom = QuestionDatabaseAccess.fetch(session.getCurrentUserId());
-            if (!questionsToChooseFrom.isEmpty()) {
-                randomQuestion = questionsToChooseFrom.get(randomizer.nextInt(questionsToChooseFrom.size()));
+        // load the question together with its answers and its follow ups; a
+        // question may have been deleted or deactivated since it was queued
+        Question randomQuestion = new Question();
+        List<Question> chain = new LinkedList<Question>();
+        while (chain.isEmpty()) {
+            // an id taken from the queue is handed out for good, so the next
+            // one is taken only while no question has been loaded
+            int questionId = queue.next(level);
+            if (questionId == 0) {
+                break;
             }
+            chain = QuestionDatabaseAccess.getQuestionChain(questionId);
         }
 
-        if (randomQuestion.getId() != 0) {
+        if (!chain.isEmpty()) {
+            randomQuestion = chain.remove(0);
+            followUps = new LinkedList<Question>(chain);
 
             setQuestion(randomQuestion);
             setCurrentQuestionId(randomQuestion.getId());
@@ -271,12 +265,10 @@ public class SearchAction implements Serializable {
 
             questionIsLoaded = true;
 
-            if (randomQuestion.isHas_follow_up_question()) {
-                isQuestionHasFollowUpQuestion = true;
-            }
+            isQuestionHasFollowUpQuestion = !followUps.isEmpty();
 
-            // preload answers for later use
-            answers = AnswersDatabaseAccess.getAnswerUrlByQuestionId(randomQuestion.getId());
+            // answers have been loaded with the question
+            setAnswers(randomQuestion.getAnswers());
         }
         else {
             questionIsLoaded = false;
@@ -295,11 +287,11 @@ public class SearchAction implements Serializable {
         timer = 0;
         matchingResult = new Result();
         isMatch = false;
-        results = new Result[NUMBER_OF_RESULTS];
-        hasResults = false;
+        clearResults();
         searchQuery = new SearchQuery();
 
-        question = QuestionDatabaseAccess.getFollowUpQuestion(question);
+        // prefetched together with the first question of the chain
+        question = followUps.poll();
 
         if (question != null) {
             setCurrentQuestionId(question.getId());
@@ -318,14 +310,9 @@ public class SearchAction implements Serializable {
 
             questionIsLoaded = true;
 
-            if (question.isHas_follow_up_question()) {
-                isQuestionHasFollowUpQuestion = true;
-            } else {
-                isQuestionHasFollowUpQuestion = false;
-            }
+            isQuestionHasFollowUpQuestion = !followUps.isEmpty();
 
-            // preload answers for later use
-            answers = AnswersDatabaseAccess.getAnswerUrlByQuestionId(currentQuestionId);
+            setAnswers(question.getAnswers());
         }
         else {
             questionIsLoaded = false;
@@ -333,29 +320,6 @@ public class SearchAction implements Serializable {
         }
     }
 
-    /**
-     * Method to filter questions which were entered or answered by the player.
-     * 
-     * @param idsToChooseFrom
-     *            the possible questions containing a certain tag
-     * 
-     * @return
-     *         the possible questions save the ones entered or answered by the
-     *         current player
-     * @throws ApplicationException
-     */
-    private List<QuestionTag> filterUserQuestions(List<QuestionTag> idsToChooseFrom) throws ApplicationException {
-        for (QuestionTag questionTag : idsToChooseFrom) {
-
-            if (QuestionDatabaseAccess.doesUserOwn(session.getCurrentUserId(), questionTag.getQuestionId())) {
-                idsToChooseFrom.remove(questionTag);
-            }
-
-        }
-
-        return idsToChooseFrom;
-    }
-
     // /**
     // * Stores an anonymous player in session and databases.
     // *
@@ -410,80 +374,280 @@ public class SearchAction implements Serializable {
 
     /**
      * Sends a HTTP Request to Europeana according to search query entered by
-     * the user.
+     * the user. The local search index is searched meanwhile; its results are
+     * shown if Europeana misses the deadline or fails.
      * 
      * @throws ApplicationException
      */
 
     public void search() throws ApplicationException {
 
+        SearchKey searchKey = prepareSearch();
+
+        Future<List<Result>> remote = SearchExecutor.getInstance().submit(searchKey, session.getCurrentUserId());
+        List<Result> local = LocalSearchIndex.getInstance().search(searchKey, NUMBER_OF_RESULTS);
+        try {
+            showFirstPage(remote, local);
+        } catch (IOException e) {
+            showNoResults(e);
+        }
+        clearParameter();
+    }
+
+    /**
+     * Starts a search in the background and returns at once. The page polls
+     * for the search and calls {@link #collectResults()} when it is finished.
+     * 
+     * @throws ApplicationException
+     */
+    public void searchAsync() throws ApplicationException {
+
+        SearchKey searchKey = prepareSearch();
+
+        searchTicket = session.getPendingSearches().add(
+                SearchExecutor.getInstance().submit(searchKey, session.getCurrentUserId()));
+        clearParameter();
+    }
+
+    /**
+     * Takes the results of the search started by {@link #searchAsync()}. If
+     * the search is still running, it is waited for until its deadline; if it
+     * misses the deadline or fails, the results of the local search index are
+     * shown.
+     */
+    public void collectResults() {
+
+        Future<List<Result>> search = session.getPendingSearches().remove(searchTicket);
+        searchTicket = null;
+        if (search == null || currentSearch == null) {
+            hasResults = false;
+            session.setError(StringProvider.getString("tryAgain"));
+            return;
+        }
+
+        List<Result> local = LocalSearchIndex.getInstance().search(currentSearch, NUMBER_OF_RESULTS);
+        try {
+            showFirstPage(search, local);
+        } catch (IOException e) {
+            showNoResults(e);
+        }
+    }
+
+    /**
+     * Shows the results of Europeana, or the local results if Europeana is too
+     * late. The first page of Europeana is the next page then; it has usually
+     * arrived in the meantime and been cached.
+     */
+    private void showFirstPage(Future<List<Result>> remote, List<Result> local) throws IOException {
+        List<Result> items = awaitResults(remote, local);
+        localPages = items == local ? 1 : 0;
+        showPage(0, items);
+    }
+
+    /**
+     * Waits for the results of Europeana until the deadline. If it is missed
+     * or the search fails, the local results are returned instead, unless
+     * there are none. A search missing the deadline is not cancelled then, so
+     * its results are cached for the next search.
+     */
+    private List<Result> awaitResults(Future<List<Result>> remote, List<Result> local) throws IOException {
+        try {
+            return remote.get(Config.REQUEST_DEADLINE, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (!local.isEmpty()) {
+                return local;
+            }
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(
+                    "Search failed.", e.getCause());
+        } catch (TimeoutException e) {
+            if (!local.isEmpty()) {
+                return local;
+            }
+            remote.cancel(true);
+            throw new IOException("Search missed the deadline.", e);
+        } catch (CancellationException e) {
+            throw new IOException("Search cancelled.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on waiting for the search.");
+        }
+    }
+
+    /**
+     * Helper method to reset the results, update the timer and store the
+     * search query before searching.
+     * 
+     * @return the key of the search
+     * @throws ApplicationException
+     */
+    private SearchKey prepareSearch() throws ApplicationException {
+
         // making sure no old results will be represented
-        results = new Result[NUMBER_OF_RESULTS];
+        clearResults();
 
         // set timer according to start time of round
         DateTime startTime = new DateTime(currentRound.getStart());
         timer = (new DateTime().getMillis() - startTime.getMillis()) / 100;
 
-        URL url;
-        String urlParameters = buildUrlParameters();
+        SearchKey searchKey = buildSearchKey();
+        currentSearch = searchKey;
 
         // store Query
         searchQuery.setRoundId(currentRound.getId());
         searchQuery = SearchQueryDatabaseAccess.store(searchQuery);
 
-        HttpURLConnection connection = null;
-        try {
-            // Create connection
-            url = new URL(URL + KEY + PROFILE + urlParameters);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-
-            connection.setUseCaches(false);
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-
-            // Send request
-            DataOutputStream wr = new DataOutputStream(
-                    connection.getOutputStream());
-            wr.writeBytes(urlParameters);
-            wr.flush();
-            wr.close();
-            // Get Response
-            InputStream is = connection.getInputStream();
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is));
-            String line;
-            StringBuffer response = new StringBuffer();
-            while ((line = rd.readLine()) != null) {
-                response.append(line);
-                response.append('\r');
-            }
-            rd.close();
+        return searchKey;
+    }
 
-            // transform to JSON
-            JSONObject json = new JSONObject(response.toString());
+    /**
+     * Shows the next page of results of the current search. The page has
+     * usually been prefetched, so it is shown at once; it does not count as
+     * another search query.
+     */
+    public void showMoreResults() {
+        if (currentSearch != null && hasMoreResults) {
+            turnPage(page + 1);
+        }
+    }
 
-            if (json.has(ITEMS)) {
-                JSONArray items = json.getJSONArray(ITEMS);
-                initResults(items);
+    /**
+     * Shows the previous page of results of the current search.
+     */
+    public void showPreviousResults() {
+        if (currentSearch != null && page > 0) {
+            turnPage(page - 1);
+        }
+    }
 
-                hasResults = true;
+    private void turnPage(int target) {
+        Result[] kept = pages.get(target);
+        if (kept != null) {
+            page = target;
+            results = kept;
+            hasMoreResults = kept.length >= NUMBER_OF_RESULTS || target < localPages;
+            prefetch(target + 1);
+            return;
+        }
 
+        try {
+            showPage(target, fetchPage(target));
+        } catch (IOException e) {
+            if (target > page) {
+                // the current page was the last one
+                hasMoreResults = false;
+                session.setError(StringProvider.getString("noMoreResults"));
             } else {
-                hasResults = false;
-                session.setError(StringProvider.getString("tryAgain"));
+                showNoResults(e);
             }
+        }
+    }
+
+    /**
+     * Takes a page from its prefetch, or searches it if it has not been
+     * prefetched.
+     */
+    private List<Result> fetchPage(int target) throws IOException {
+        Future<List<Result>> prefetched = null;
+        if (prefetchTicket != null) {
+            prefetched = session.getPendingSearches().remove(prefetchTicket);
+            prefetchTicket = null;
+        }
+        if (prefetched == null || target != page + 1) {
+            if (prefetched != null) {
+                prefetched.cancel(false);
+            }
+            return SearchCache.getInstance().search(remotePage(target), session.getCurrentUserId());
+        }
+
+        try {
+            return prefetched.get(Config.REQUEST_DEADLINE, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QuotaExceededException) {
+                // prefetches only use the reserve of the quota, the player
+                // may still search
+                return SearchCache.getInstance().search(remotePage(target), session.getCurrentUserId());
+            }
+            throw new IOException("Prefetch of page " + target + " failed.", e.getCause());
+        } catch (TimeoutException | CancellationException e) {
+            prefetched.cancel(false);
+            throw new IOException("Prefetch of page " + target + " failed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted on waiting for page " + target, e);
+        }
+    }
+
+    /**
+     * Shows a page of results, keeps it for paging back and forth and starts
+     * to prefetch the next page.
+     */
+    private void showPage(int target, List<Result> items) {
+        page = target;
+        results = items.toArray(new Result[items.size()]);
+        hasResults = true;
+        // a full page suggests there are more results, Europeana has more
+        // than the local search index anyway
+        hasMoreResults = results.length >= NUMBER_OF_RESULTS || target < localPages;
+
+        pages.put(target, results);
+        Iterator<Integer> eldest = pages.keySet().iterator();
+        while (pages.size() > Config.SEARCH_PAGES_KEPT && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
 
-        } catch (Exception e) {
+        prefetch(target + 1);
+    }
 
-            e.printStackTrace();
+    /**
+     * Starts to search a page in the background, unless it is kept already.
+     * Prefetches use the reserve of the request quota only and never delay
+     * searches of players.
+     */
+    private void prefetch(int target) {
+        cancelPrefetch();
+        if (!hasMoreResults || pages.containsKey(target)) {
+            return;
+        }
+        prefetchTicket = session.getPendingSearches().add(
+                SearchExecutor.getInstance().submit(remotePage(target), session.getCurrentUserId(),
+                        Priority.BACKGROUND));
+    }
 
-        } finally {
+    /**
+     * Returns the key of the search at Europeana for a page shown.
+     */
+    private SearchKey remotePage(int target) {
+        return currentSearch.withPage(target - localPages);
+    }
 
-            if (connection != null) {
-                connection.disconnect();
+    /**
+     * Forgets the results and pages of the previous search.
+     */
+    private void clearResults() {
+        results = new Result[NUMBER_OF_RESULTS];
+        hasResults = false;
+        hasMoreResults = false;
+        page = 0;
+        localPages = 0;
+        pages.clear();
+        cancelPrefetch();
+    }
+
+    private void cancelPrefetch() {
+        if (prefetchTicket != null) {
+            Future<List<Result>> prefetched = session.getPendingSearches().remove(prefetchTicket);
+            if (prefetched != null) {
+                prefetched.cancel(false);
             }
+            prefetchTicket = null;
         }
-        clearParameter();
+    }
+
+    private void showNoResults(Throwable cause) {
+        cause.printStackTrace();
+        hasResults = false;
+        session.setError(StringProvider.getString("tryAgain"));
     }
 
     /**
@@ -495,32 +659,28 @@ public class SearchAction implements Serializable {
 
     public void check(Result result) throws ApplicationException {
 
-        String idToCheck = result.getId();
-        for (Answer answer : answers) {
+        String idToCheck = RecordIds.canonicalize(result.getId());
+        if (idToCheck != null && answerIds.contains(idToCheck)) {
+            isMatch = true;
 
-            String answerString = answer.getAnswerUrl();
-            if (answerString.contains(idToCheck)) {
-                isMatch = true;
-
-                // set new round parameters
-                currentRound.setPass(pass);
-                currentRound.setLivesLeft(livesLeft);
-                currentRound.setEnd(new Timestamp(new Date().getTime()));
-                Seconds seconds = Seconds.secondsBetween(new DateTime(currentRound.getStart()), new DateTime(
-                        currentRound.getEnd()));
-
-                // could use some time conversion stuff to minutes and hours
-                currentRound.setDuration(seconds.getSeconds());
-
-                // calculate and set score
-                XpCalculator calculator = new XpCalculator(question, currentRound);
-                int score = calculator.calculateXp();
-                currentRound.setScore(score);
-                // update round & user
-                UserAction.updateXp(score, session);
-                RoundsDatabaseAccess.update(currentRound);
-                matchingResult = result;
-            }
+            // set new round parameters
+            currentRound.setPass(pass);
+            currentRound.setLivesLeft(livesLeft);
+            currentRound.setEnd(new Timestamp(new Date().getTime()));
+            Seconds seconds = Seconds.secondsBetween(new DateTime(currentRound.getStart()), new DateTime(
+                    currentRound.getEnd()));
+
+            // could use some time conversion stuff to minutes and hours
+            currentRound.setDuration(seconds.getSeconds());
+
+            // calculate and set score
+            XpCalculator calculator = new XpCalculator(question, currentRound);
+            int score = calculator.calculateXp();
+            currentRound.setScore(score);
+            // update round & user
+            UserAction.updateXp(score, session);
+            RoundsDatabaseAccess.update(currentRound);
+            matchingResult = result;
         }
 
         if (question.isHas_follow_up_question()) {
@@ -550,85 +710,30 @@ public class SearchAction implements Serializable {
 
     }
 
-    private void initResults(JSONArray items) throws JSONException {
-
-        int timesToIterate = NUMBER_OF_RESULTS;
-
-        // check if items is long enough to contain the default number of
-        // results
-        if (items.length() <= NUMBER_OF_RESULTS) {
-            timesToIterate = items.length();
-            // reinitialize array
-            results = new Result[items.length()];
-        }
-        for (int i = 0; i < timesToIterate; i++) {
-            results[i] = new Result();
-            String toTrim = items.getJSONObject(i).get(TITLE).toString();
-            // trim brackets
-            results[i].setTitle(toTrim.substring(2, toTrim.length() - 2));
-
-            if (items.getJSONObject(i).has(PREVIEW)) {
-                toTrim = items.getJSONObject(i).get(PREVIEW).toString();
-                results[i].setPreview(toTrim.substring(2, toTrim.length() - 2));
-            } else {
-                results[i].setPreview("");
-            }
-
-            if (items.getJSONObject(i).has(ID)) {
-                toTrim = items.getJSONObject(i).get(ID).toString();
-                results[i].setId(toTrim);
-            } else {
-                results[i].setId("no id available");
-            }
-
-
-            if (items.getJSONObject(i).has(TYPE)) {
-                toTrim = items.getJSONObject(i).get(TYPE).toString();
-
-                if (toTrim.equals(IMAGE)) {
-                    results[i].setImage(true);
-                }
-                else if (toTrim.equals(TEXT)) {
-                    results[i].setText(true);
-                }
-                else if (toTrim.equals(VIDEO)) {
-                    results[i].setVideo(true);
-                }
-                else if (toTrim.equals(SOUND)) {
-                    results[i].setSound(true);
-                }
-            }
-
-        }
-    }
-
     /**
-     * Helper method to build url parameters and specify SearchQuery DTO.
+     * Helper method to build the search's key and specify SearchQuery DTO.
      * 
-     * @return the url parameters
+     * @return the key of the search
      */
-    private String buildUrlParameters() {
+    private SearchKey buildSearchKey() {
 
-        // build parameters
-        String urlParameters = QUERY + searchQuery.getQuery();
+        if (!useFilter) {
+            return new SearchKey(searchQuery.getQuery(), null, null, null);
+        }
 
-        if (useFilter) {
-            searchQuery.setFilterUsed(useFilter);
+        searchQuery.setFilterUsed(useFilter);
+        SearchKey searchKey = new SearchKey(searchQuery.getQuery(), countryFilter, languageFilter, typeFilter);
 
-            if (countryFilter != "") {
-                urlParameters = urlParameters + FILTER + countryFilter;
-                searchQuery.setFilterProvider(countryFilter);
-            }
-            if (languageFilter != "") {
-                urlParameters = urlParameters + FILTER + languageFilter;
-                searchQuery.setFilterLanguage(languageFilter);
-            }
-            if (typeFilter != "") {
-                urlParameters = urlParameters + FILTER + typeFilter.toUpperCase();
-                searchQuery.setFilterType(typeFilter.toUpperCase());
-            }
+        if (searchKey.getCountry() != null) {
+            searchQuery.setFilterProvider(searchKey.getCountry());
+        }
+        if (searchKey.getLanguage() != null) {
+            searchQuery.setFilterLanguage(searchKey.getLanguage());
+        }
+        if (searchKey.getType() != null) {
+            searchQuery.setFilterType(searchKey.getType());
         }
-        return urlParameters;
+        return searchKey;
     }
 
     /**
@@ -638,11 +743,11 @@ public class SearchAction implements Serializable {
      * @throws ApplicationException
      */
     public String report() throws ApplicationException {
-        question.setReported(question.getReported() + 1);
-        if(question.getReported() >= 3){
+        // the question itself is deactivated by the same statement
+        int reported = QuestionDatabaseAccess.incrementReported(question);
+        if (reported == QuestionDatabaseAccess.REPORT_LIMIT && question.isHas_follow_up_question()) {
             QuestionDatabaseAccess.delete(question);
         }
-        question = QuestionDatabaseAccess.update(question);
         currentRound.setPass(repo);
         currentRound = RoundsDatabaseAccess.update(currentRound);
         session.setInfo(StringProvider.getString("thanks"));
@@ -656,16 +761,14 @@ public class SearchAction implements Serializable {
      * @throws ApplicationException
      */
     public String cancel() throws ApplicationException {
-        question.setSkipped(question.getSkipped() + 1);
-        question = QuestionDatabaseAccess.update(question);
+        QuestionDatabaseAccess.incrementSkipped(question);
         currentRound.setPass(skipp);
         currentRound = RoundsDatabaseAccess.update(currentRound);
         return "answering";
     }
 
     /**
-     * Changes a questions difficulty rating. (simple method, could be improved
-     * by storing the number for every rating value in the db)
+     * Changes a questions difficulty rating.
      * 
      * @throws ApplicationException
      */
@@ -711,6 +814,16 @@ public class SearchAction implements Serializable {
 
     public void setAnswers(List<Answer> answers) {
         this.answers = answers;
+
+        answerIds = new HashSet<String>();
+        for (Answer answer : answers) {
+            // answers stored before record ids were introduced
+            String id = answer.getRecordId() != null ? answer.getRecordId() : RecordIds.canonicalize(answer
+                    .getAnswerUrl());
+            if (id != null) {
+                answerIds.add(id);
+            }
+        }
     }
 
     public QuestionTag getQuestionTags() {
@@ -817,6 +930,26 @@ public class SearchAction implements Serializable {
         return hasResults;
     }
 
+    public int getPage() {
+        return page;
+    }
+
+    public boolean isHasMoreResults() {
+        return hasMoreResults;
+    }
+
+    public boolean isHasPreviousResults() {
+        return page > 0;
+    }
+
+    public boolean isSearchPending() {
+        return searchTicket != null;
+    }
+
+    public String getSearchTicket() {
+        return searchTicket;
+    }
+
     public void setHasResults(boolean hasResults) {
         this.hasResults = hasResults;
     }
@@ -11,6 +11,9 @@ import java.util.regex.Pattern;
 
 import cgwap.entities.Answer;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
+import cgwap.util.europeana.RecordIds;
 import cgwap.util.exception_handler.ApplicationException;
 
 /**
@@ -37,6 +40,26 @@ public class AnswersDatabaseAccess {
      */
     protected static final String COL_URL = "url";
 
+    /**
+     * The column name for the canonical id of the record the url refers to.
+     */
+    protected static final String COL_RECORD_ID = "record_id";
+
+    /**
+     * Maps complete answers.
+     */
+    private static final RowMapper<Answer> MAPPER = new RowMapper<Answer>(COL_QUESTION_ID, COL_URL,
+            COL_RECORD_ID) {
+        @Override
+        protected Answer map(ResultSet resultSet) throws SQLException {
+            Answer entity = new Answer();
+            entity.setQuestionId(resultSet.getInt(1));
+            entity.setAnswerUrl(resultSet.getString(2));
+            entity.setRecordId(resultSet.getString(3));
+            return entity;
+        }
+    };
+
     /**
      * Stores a new Instance in Database.
      * 
@@ -73,7 +96,9 @@ public class AnswersDatabaseAccess {
         query.append(AnswersDatabaseAccess.COL_QUESTION_ID);
         query.append(",");
         query.append(AnswersDatabaseAccess.COL_URL);
-        query.append(") VALUES (?,?) RETURNING *;");
+        query.append(",");
+        query.append(AnswersDatabaseAccess.COL_RECORD_ID);
+        query.append(") VALUES (?,?,?) RETURNING " + MAPPER.columns() + ";");
 
         PreparedStatement statement = null;
         try {
@@ -84,9 +109,12 @@ public class AnswersDatabaseAccess {
 
                 String cleanURL = cleanUrl(entity.getAnswerUrl());
                 statement.setString(2, cleanURL);
+                statement.setString(3, RecordIds.canonicalize(cleanURL));
 
                 return convertToInstance(statement.executeQuery());
             } finally {
+                QuestionCache.getInstance().invalidate(entity.getQuestionId());
+                InvalidationBus.publish(connection, Entity.ANSWER, entity.getQuestionId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -166,6 +194,8 @@ public class AnswersDatabaseAccess {
 
                 return resultRows > 0;
             } finally {
+                QuestionCache.getInstance().invalidate(entity.getQuestionId());
+                InvalidationBus.publish(connection, Entity.ANSWER, entity.getQuestionId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -293,7 +323,7 @@ public class AnswersDatabaseAccess {
         List<Answer> entities = new LinkedList<Answer>();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT *");
+        query.append("SELECT " + MAPPER.columns());
         query.append(" FROM " + TABLE);
         query.append(" WHERE " + COL_QUESTION_ID);
         query.append(" = ?;");
@@ -319,6 +349,64 @@ public class AnswersDatabaseAccess {
         return entities;
     }
 
+    /**
+     * Gets the distinct record ids of all answers in storage.
+     * 
+     * @return the record ids
+     * @throws ApplicationException
+     */
+    public static List<String> getRecordIds() throws ApplicationException {
+        List<String> result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = AnswersDatabaseAccess.getRecordIds(connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table to get the distinct
+     * record ids of all answers.
+     * 
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the record ids
+     * @throws ApplicationException
+     */
+    protected static List<String> getRecordIds(Connection connection) throws ApplicationException {
+
+        List<String> recordIds = new LinkedList<String>();
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT DISTINCT " + COL_RECORD_ID);
+        query.append(" FROM " + TABLE);
+        query.append(" WHERE " + COL_RECORD_ID + " IS NOT NULL;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) {
+                    recordIds.add(resultSet.getString(1));
+                }
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return recordIds;
+    }
+
     // *************************************************
     // COUNT
     // *************************************************
@@ -395,20 +483,7 @@ public class AnswersDatabaseAccess {
      * @throws ApplicationException
      */
     protected static Answer convertToInstance(ResultSet resultSet) throws ApplicationException {
-        Answer entity = null;
-
-        try {
-            if (resultSet.next()) {
-                entity = new Answer();
-                entity.setQuestionId(resultSet.getInt(COL_QUESTION_ID));
-                entity.setAnswerUrl(resultSet.getString(COL_URL));
-                return entity;
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.", e);
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -421,19 +496,7 @@ public class AnswersDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<Answer> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<Answer> entities = new LinkedList<Answer>();
-
-        Answer entity = AnswersDatabaseAccess.convertToInstance(resultSet);
-
-        // while there are tags left and none have been listed already
-        while (entity != null) {
-            entities.add(entity);
-            entity = AnswersDatabaseAccess.convertToInstance(resultSet);
-
-        }
-
-        return entities;
-
+        return MAPPER.mapAll(resultSet);
     }
 
 }
@@ -0,0 +1,52 @@
+package cgwap.data_access;
+
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
+
+/**
+ * Evicts the entities changed by other servers from the caches of this
+ * server. Entries that are updated in place by the local writes, like the
+ * bitmaps of the {@link QuestionCatalog}, cannot be patched from a change
+ * event and are marked as stale instead. The changes of this server itself
+ * never reach it.
+ * 
+ * Registered at the {@link InvalidationBus} at startup.
+ */
+public class CacheInvalidator implements InvalidationBus.Listener {
+
+    @Override
+    public void invalidated(Entity entity, int id) {
+        switch (entity) {
+        case QUESTION:
+            QuestionCache.getInstance().invalidate(id);
+            QuestionCatalog.getInstance().markStale();
+            QuestionWeights.getInstance().markStale();
+            break;
+        case QUESTION_STATISTICS:
+            QuestionCache.getInstance().invalidate(id);
+            QuestionWeights.getInstance().markStale();
+            break;
+        case ANSWER:
+            QuestionCache.getInstance().invalidate(id);
+            break;
+        case TAG:
+            QuestionCache.getInstance().invalidate(id);
+            TagCatalog.getInstance().invalidate();
+            QuestionCatalog.getInstance().markStale();
+            break;
+        case ROUND:
+            QuestionCatalog.getInstance().invalidatePlayed(id);
+            QuestionWeights.getInstance().markStale();
+            break;
+        case USER:
+            UserDatabaseAccess.bumpVersion(id);
+            break;
+        default:
+            QuestionCache.getInstance().invalidateAll();
+            TagCatalog.getInstance().invalidate();
+            QuestionCatalog.getInstance().markStale();
+            QuestionWeights.getInstance().markStale();
+            UserDatabaseAccess.bumpAllVersions();
+        }
+    }
+}
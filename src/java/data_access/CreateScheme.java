@@ -48,6 +48,11 @@ public class CreateScheme {
             + UserDatabaseAccess.COL_IS_ACTIVE + " BOOLEAN     DEFAULT TRUE"
             + ");";
 
+    // supports the keyset pagination of the users by xp
+    private static final String CREATE_USERS_XP_INDEX = "CREATE INDEX " + UserDatabaseAccess.TABLE + "_xp_idx"
+            + " ON " + UserDatabaseAccess.TABLE
+            + " (" + UserDatabaseAccess.COL_XP + ", " + UserDatabaseAccess.COL_USER_ID + ");";
+
     private static final String CREATE_QUESTIONS = "CREATE TABLE IF NOT EXISTS " + QuestionDatabaseAccess.TABLE + " ("
             + QuestionDatabaseAccess.COL_QUESTION_ID + " SERIAL          PRIMARY KEY,"
             + QuestionDatabaseAccess.COL_QUESTION_TEXT + " VARCHAR(255)    NOT NULL,"
@@ -60,6 +65,7 @@ public class CreateScheme {
             + QuestionDatabaseAccess.COL_HAS_FOLLOW_UP + " BOOLEAN         DEFAULT FALSE,"
             + QuestionDatabaseAccess.COL_PREVIOUS_ID + " INTEGER         DEFAULT NULL,"
             + QuestionDatabaseAccess.COL_RATING_COUNTER + " INTEGER         DEFAULT 0,"
+            + QuestionDatabaseAccess.COL_RATING_SUM + " FLOAT           DEFAULT 0,"
             + QuestionDatabaseAccess.COL_IS_ACTIVE + " BOOLEAN         DEFAULT TRUE"
             + ");";
 
@@ -89,14 +95,31 @@ public class CreateScheme {
     private static final String CREATE_ANSWERS = "CREATE TABLE IF NOT EXISTS " + AnswersDatabaseAccess.TABLE + " ("
             + AnswersDatabaseAccess.COL_QUESTION_ID + " INTEGER        REFERENCES questions  ON DELETE CASCADE  ,"
             + AnswersDatabaseAccess.COL_URL + " VARCHAR(255)    NOT NULL,"
+            + AnswersDatabaseAccess.COL_RECORD_ID + " VARCHAR(255),"
             + "UNIQUE                   (question_id, url)"
             + ");";
 
+    // guesses are checked by record id
+    private static final String CREATE_ANSWERS_INDEX = "CREATE INDEX " + AnswersDatabaseAccess.TABLE
+            + "_record_id_idx ON " + AnswersDatabaseAccess.TABLE
+            + " (" + AnswersDatabaseAccess.COL_RECORD_ID + ");";
+
+    private static final String CREATE_TAG_DICTIONARY = "CREATE TABLE IF NOT EXISTS "
+            + TagsDatabaseAccess.TABLE_DICTIONARY + " ("
+            + TagsDatabaseAccess.COL_TAG_ID + " SERIAL        PRIMARY KEY,"
+            + TagsDatabaseAccess.COL_TAG + " VARCHAR(255)  NOT NULL UNIQUE"
+            + ");";
+
     private static final String CREATE_TAGS = "CREATE TABLE IF NOT EXISTS " + TagsDatabaseAccess.TABLE + " ("
             + TagsDatabaseAccess.COL_QUESTION_ID + " INTEGER       REFERENCES questions  ON DELETE CASCADE,"
-            + TagsDatabaseAccess.COL_TAG + " VARCHAR(255)  DEFAULT NULL"
+            + TagsDatabaseAccess.COL_TAG_ID + " INTEGER       REFERENCES " + TagsDatabaseAccess.TABLE_DICTIONARY + ","
+            + "PRIMARY KEY              (question_id, tag_id)"
             + ");";
 
+    // the primary key covers lookups by question, this one lookups by tag
+    private static final String CREATE_TAGS_INDEX = "CREATE INDEX " + TagsDatabaseAccess.TABLE + "_tag_id_idx"
+            + " ON " + TagsDatabaseAccess.TABLE + " (" + TagsDatabaseAccess.COL_TAG_ID + ");";
+
     private static final String CREATE_FUNCTION_UPDATE_QUESTION_MODIFIED =
             "DROP FUNCTION IF EXISTS update_question_modified_column() CASCADE; "
                     + "CREATE FUNCTION update_question_modified_column() "
@@ -107,15 +130,93 @@ public class CreateScheme {
                     + "END; "
                     + "' LANGUAGE plpgsql;";
 
-    // Create modification trigger.
+    // Create modification trigger, only changes of the content count as
+    // modification.
     private static final String CREATE_TRIGGER_QUESTION_MODIFIED =
             "DROP TRIGGER IF EXISTS update_question_modified_column ON " + QuestionDatabaseAccess.TABLE + ";"
                     + " CREATE TRIGGER update_question_modified_column"
-                    + " BEFORE UPDATE"
+                    + " BEFORE UPDATE OF " + QuestionDatabaseAccess.COL_QUESTION_TEXT
                     + " ON " + QuestionDatabaseAccess.TABLE
                     + " FOR EACH ROW EXECUTE PROCEDURE"
                     + " update_question_modified_column();";
 
+    /*
+     * Migrations
+     */
+
+    // check for the tag dictionary, missing in schemes created by older
+    // versions
+    private static final String CHECK_TAG_DICTIONARY = "SELECT EXISTS("
+            + "SELECT 1"
+            + " FROM information_schema.tables"
+            + " WHERE table_name = '" + TagsDatabaseAccess.TABLE_DICTIONARY
+            + "')";
+
+    // check for the xp index of the users
+    private static final String CHECK_USERS_XP_INDEX = "SELECT EXISTS("
+            + "SELECT 1"
+            + " FROM pg_class"
+            + " WHERE relname = '" + UserDatabaseAccess.TABLE + "_xp_idx"
+            + "')";
+
+    // check for the rating sum of the questions
+    private static final String CHECK_RATING_SUM = "SELECT EXISTS("
+            + "SELECT 1"
+            + " FROM information_schema.columns"
+            + " WHERE table_name = '" + QuestionDatabaseAccess.TABLE
+            + "' AND column_name = '" + QuestionDatabaseAccess.COL_RATING_SUM
+            + "')";
+
+    // check for the record ids of the answers
+    private static final String CHECK_ANSWERS_RECORD_ID = "SELECT EXISTS("
+            + "SELECT 1"
+            + " FROM information_schema.columns"
+            + " WHERE table_name = '" + AnswersDatabaseAccess.TABLE
+            + "' AND column_name = '" + AnswersDatabaseAccess.COL_RECORD_ID
+            + "')";
+
+    // extract the record ids from the stored urls, which all end with
+    // /record/<dataset>/<local id>.html
+    private static final String MIGRATE_ANSWERS_RECORD_ID = "ALTER TABLE " + AnswersDatabaseAccess.TABLE
+            + " ADD COLUMN " + AnswersDatabaseAccess.COL_RECORD_ID + " VARCHAR(255);"
+            + " UPDATE " + AnswersDatabaseAccess.TABLE
+            + " SET " + AnswersDatabaseAccess.COL_RECORD_ID + " = substring("
+            + AnswersDatabaseAccess.COL_URL + " from '/record(/[^/]+/[^/]+)\\.html$');";
+
+    // derive the rating sum from the average; an unrated question's rating is
+    // the asker's estimate, which counts as the first rating like in store()
+    private static final String MIGRATE_RATING_SUM = "ALTER TABLE " + QuestionDatabaseAccess.TABLE
+            + " ADD COLUMN " + QuestionDatabaseAccess.COL_RATING_SUM + " FLOAT DEFAULT 0;"
+            + " UPDATE " + QuestionDatabaseAccess.TABLE
+            + " SET " + QuestionDatabaseAccess.COL_RATING_SUM + " = "
+            + QuestionDatabaseAccess.COL_DIFFICULTY_RATING + " * " + QuestionDatabaseAccess.COL_RATING_COUNTER
+            + " WHERE " + QuestionDatabaseAccess.COL_RATING_COUNTER + " > 0;"
+            + " UPDATE " + QuestionDatabaseAccess.TABLE
+            + " SET " + QuestionDatabaseAccess.COL_RATING_SUM + " = " + QuestionDatabaseAccess.COL_DIFFICULTY_RATING
+            + ", " + QuestionDatabaseAccess.COL_RATING_COUNTER + " = 1"
+            + " WHERE " + QuestionDatabaseAccess.COL_RATING_COUNTER + " = 0"
+            + " AND " + QuestionDatabaseAccess.COL_DIFFICULTY_RATING + " > 0;";
+
+    // fill the dictionary with the distinct tags of the legacy table
+    private static final String MIGRATE_TAG_DICTIONARY = "INSERT INTO " + TagsDatabaseAccess.TABLE_DICTIONARY
+            + " (" + TagsDatabaseAccess.COL_TAG + ")"
+            + " SELECT DISTINCT lower(" + TagsDatabaseAccess.COL_TAG + ")"
+            + " FROM " + TagsDatabaseAccess.TABLE_LEGACY
+            + " WHERE " + TagsDatabaseAccess.COL_TAG + " IS NOT NULL;";
+
+    // link the questions to the dictionary, dropping duplicate rows
+    private static final String MIGRATE_TAGS = "INSERT INTO " + TagsDatabaseAccess.TABLE
+            + " (" + TagsDatabaseAccess.COL_QUESTION_ID + ", " + TagsDatabaseAccess.COL_TAG_ID + ")"
+            + " SELECT DISTINCT l." + TagsDatabaseAccess.COL_QUESTION_ID + ", d." + TagsDatabaseAccess.COL_TAG_ID
+            + " FROM " + TagsDatabaseAccess.TABLE_LEGACY + " l"
+            + " JOIN " + TagsDatabaseAccess.TABLE_DICTIONARY + " d"
+            + " ON d." + TagsDatabaseAccess.COL_TAG + " = lower(l." + TagsDatabaseAccess.COL_TAG + ")"
+            + " WHERE l." + TagsDatabaseAccess.COL_QUESTION_ID + " IS NOT NULL;";
+
+    // keep the legacy data, but out of the way
+    private static final String RENAME_LEGACY_TAGS = "ALTER TABLE " + TagsDatabaseAccess.TABLE_LEGACY
+            + " RENAME TO " + TagsDatabaseAccess.TABLE_LEGACY + "_legacy;";
+
     /**
      * Creates database scheme.
      * 
@@ -131,9 +232,13 @@ public class CreateScheme {
             boolean exists = CreateScheme.checkScheme(connection, CHECK_EXISTENCE);
             if (!exists) {
                 CreateScheme.executeStatement(connection, CREATE_USERS);
+                CreateScheme.executeStatement(connection, CREATE_USERS_XP_INDEX);
                 CreateScheme.executeStatement(connection, CREATE_QUESTIONS);
+                CreateScheme.executeStatement(connection, CREATE_TAG_DICTIONARY);
                 CreateScheme.executeStatement(connection, CREATE_TAGS);
+                CreateScheme.executeStatement(connection, CREATE_TAGS_INDEX);
                 CreateScheme.executeStatement(connection, CREATE_ANSWERS);
+                CreateScheme.executeStatement(connection, CREATE_ANSWERS_INDEX);
                 CreateScheme.executeStatement(connection, CREATE_ROUNDS);
                 CreateScheme.executeStatement(connection, CREATE_QUERIES);
 
@@ -148,12 +253,76 @@ public class CreateScheme {
                 } else {
                     LOGGER.warning("Error on creating initial user");
                 }
+            } else {
+                CreateScheme.migrateSchemes(connection);
             }
         } finally {
             ConnectionPool.releaseConnection(connection);
         }
     }
 
+    /**
+     * Brings a database scheme created by an older version up to date.
+     * 
+     * @param connection
+     *            the database connection to perform the statements on
+     * @throws ApplicationException
+     *             if a migration failed.
+     */
+    private static void migrateSchemes(Connection connection) throws ApplicationException {
+        if (!CreateScheme.checkScheme(connection, CHECK_TAG_DICTIONARY)) {
+            CreateScheme.migrateTags(connection);
+        }
+        if (!CreateScheme.checkScheme(connection, CHECK_USERS_XP_INDEX)) {
+            CreateScheme.executeStatement(connection, CREATE_USERS_XP_INDEX);
+        }
+        if (!CreateScheme.checkScheme(connection, CHECK_RATING_SUM)) {
+            CreateScheme.executeStatement(connection, MIGRATE_RATING_SUM);
+        }
+        if (!CreateScheme.checkScheme(connection, CHECK_ANSWERS_RECORD_ID)) {
+            CreateScheme.executeStatement(connection, MIGRATE_ANSWERS_RECORD_ID);
+            CreateScheme.executeStatement(connection, CREATE_ANSWERS_INDEX);
+        }
+
+        // replaces a trigger of an older version firing on every update
+        CreateScheme.executeStatement(connection, CREATE_TRIGGER_QUESTION_MODIFIED);
+    }
+
+    /**
+     * Moves the free text tags into the tag dictionary.
+     * 
+     * @param connection
+     *            the database connection to perform the statements on
+     * @throws ApplicationException
+     *             if the migration failed; it is rolled back completely.
+     */
+    private static void migrateTags(Connection connection) throws ApplicationException {
+        try {
+            connection.setAutoCommit(false);
+
+            CreateScheme.executeStatement(connection, CREATE_TAG_DICTIONARY);
+            CreateScheme.executeStatement(connection, MIGRATE_TAG_DICTIONARY);
+            CreateScheme.executeStatement(connection, CREATE_TAGS);
+            CreateScheme.executeStatement(connection, CREATE_TAGS_INDEX);
+            CreateScheme.executeStatement(connection, MIGRATE_TAGS);
+            CreateScheme.executeStatement(connection, RENAME_LEGACY_TAGS);
+
+            connection.commit();
+            LOGGER.info("Successfully migrated tags to " + TagsDatabaseAccess.TABLE_DICTIONARY);
+        } catch (SQLException | ApplicationException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException excep) {
+            }
+            throw new ApplicationException("Failed to migrate Scheme", e);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+            }
+        }
+    }
+
     private static boolean checkScheme(Connection connection, String sqlQuery) throws ApplicationException {
         Statement statement = null;
 
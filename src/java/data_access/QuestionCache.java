@@ -0,0 +1,317 @@
+package cgwap.data_access;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import cgwap.entities.Answer;
+import cgwap.entities.Question;
+import cgwap.entities.QuestionTag;
+import cgwap.util.Config;
+import cgwap.util.cache.CacheSnapshot;
+
+/**
+ * Keeps recently read questions together with their answers and tags in
+ * memory. Every write on a question, its answers or its tags invalidates the
+ * cached question; the entries expire after a while anyway, in case the
+ * database is changed from elsewhere.
+ * 
+ * The cache hands out copies, so callers may change the questions they get.
+ * 
+ * The cached questions are kept in the {@link CacheSnapshot} across restarts;
+ * they are restored on first use, unless a question has been invalidated
+ * before. A restored question expires when it would have without the restart.
+ * 
+ */
+public class QuestionCache {
+
+    private static final Logger LOGGER = Logger.getLogger(QuestionCache.class.getName());
+
+    /**
+     * Name and version of the section in the cache snapshot, the version has
+     * to be increased whenever the encoding of the questions changes.
+     */
+    private static final String SNAPSHOT_SECTION = "questions";
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static QuestionCache instance;
+
+    private final Cache<Integer, Entry> cache;
+
+    // counts the invalidations, loads started before one are not cached
+    private long version = 0;
+
+    private final int expireSeconds;
+
+    private volatile boolean restorePending = true;
+
+    /**
+     * Creates a cache.
+     * 
+     * @param size
+     *            maximal number of cached questions, 0 disables the cache
+     * @param expireSeconds
+     *            seconds after which a question is removed
+     */
+    public QuestionCache(int size, int expireSeconds) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        this.expireSeconds = expireSeconds;
+    }
+
+    /**
+     * Creates the default cache from the config.
+     */
+    public static synchronized void startup() {
+        instance = new QuestionCache(Config.QUESTION_CACHE_SIZE, Config.QUESTION_CACHE_EXPIRE);
+    }
+
+    /**
+     * Logs the statistics of the default cache.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            LOGGER.info("Question cache: " + instance.getStatistics());
+            instance = null;
+        }
+    }
+
+    /**
+     * Adds the questions of the default cache to the snapshot.
+     * 
+     * @param snapshot
+     *            the snapshot written at shutdown
+     * @throws IOException
+     */
+    public static synchronized void save(CacheSnapshot.Writer snapshot) throws IOException {
+        if (instance == null) {
+            return;
+        }
+        Map<Integer, Entry> questions = new HashMap<Integer, Entry>(instance.cache.asMap());
+
+        CacheSnapshot.Output output = snapshot.section(SNAPSHOT_SECTION, SNAPSHOT_VERSION);
+        output.writeInt(questions.size());
+        for (Entry entry : questions.values()) {
+            Question question = entry.question;
+            output.writeLong(entry.written);
+            output.writeInt(question.getId());
+            output.writeInt(question.getUserId());
+            output.writeString(question.getQuestionText());
+            output.writeLong(question.getTimestamp() == null ? -1 : question.getTimestamp().getTime());
+            output.writeInt(question.getSkipped());
+            output.writeFloat(question.getDifficultyRating());
+            output.writeInt(question.getRatingCounter());
+            output.writeInt(question.getReported());
+            output.writeBoolean(question.isHas_follow_up_question());
+            output.writeInt(question.getPrevious_question_id());
+
+            output.writeInt(question.getAnswers() == null ? -1 : question.getAnswers().size());
+            if (question.getAnswers() != null) {
+                for (Answer answer : question.getAnswers()) {
+                    output.writeString(answer.getAnswerUrl());
+                    output.writeString(answer.getRecordId());
+                }
+            }
+            output.writeInt(question.getTags() == null ? -1 : question.getTags().size());
+            if (question.getTags() != null) {
+                for (QuestionTag tag : question.getTags()) {
+                    output.writeInt(tag.getTagId());
+                    output.writeString(tag.getTag());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the default cache.
+     * 
+     * @return the cache configured from the config
+     */
+    public static synchronized QuestionCache getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a cached question.
+     * 
+     * @param questionId
+     *            the question's id
+     * @return a copy of the question, null if it is not cached
+     */
+    public Question get(int questionId) {
+        if (restorePending) {
+            restore(CacheSnapshot.getInstance());
+        }
+        Entry entry = cache.getIfPresent(questionId);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry)) {
+            cache.asMap().remove(questionId, entry);
+            return null;
+        }
+        return new Question(entry.question);
+    }
+
+    /**
+     * Returns the version to pass to {@link #put(Question, long)}. It has to
+     * be taken before the question is read from the database.
+     * 
+     * @return the current version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Caches a question read from the database, unless the cache has been
+     * invalidated since the read started.
+     * 
+     * @param question
+     *            the question, with its answers and tags
+     * @param readVersion
+     *            the version taken before the read
+     */
+    public synchronized void put(Question question, long readVersion) {
+        if (readVersion == version) {
+            cache.put(question.getId(), new Entry(new Question(question), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Removes a question after it, its answers or its tags have been changed.
+     * 
+     * @param questionId
+     *            the question's id
+     */
+    public synchronized void invalidate(int questionId) {
+        version++;
+        cache.invalidate(questionId);
+    }
+
+    /**
+     * Removes all questions, e.g. after a change of several questions.
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        cache.invalidateAll();
+    }
+
+    /**
+     * Adds the questions of the snapshot, unless a question has been
+     * invalidated since startup; it might be one of them. Questions that have
+     * expired in the meantime are skipped.
+     */
+    private synchronized void restore(CacheSnapshot snapshot) {
+        if (!restorePending) {
+            return;
+        }
+        restorePending = false;
+        if (version != 0) {
+            return;
+        }
+        CacheSnapshot.Input input = snapshot.take(SNAPSHOT_SECTION, SNAPSHOT_VERSION, expireSeconds);
+        if (input == null) {
+            return;
+        }
+
+        try {
+            int count = input.readInt();
+            List<Entry> entries = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                long written = input.readLong();
+                Question question = readQuestion(input);
+                Entry entry = new Entry(question, written);
+                if (!isExpired(entry)) {
+                    entries.add(entry);
+                }
+            }
+            for (Entry entry : entries) {
+                cache.put(entry.question.getId(), entry);
+            }
+            LOGGER.info("Restored " + entries.size() + " of " + count + " questions from the cache snapshot.");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore the questions from the cache snapshot.", e);
+        }
+    }
+
+    // the cache counts the lifetime of a restored question from the restore
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.written >= expireSeconds * 1000L;
+    }
+
+    private static Question readQuestion(CacheSnapshot.Input input) throws IOException {
+        Question question = new Question(input.readInt());
+        question.setUserId(input.readInt());
+        question.setQuestionText(input.readString());
+        long timestamp = input.readLong();
+        question.setTimestamp(timestamp < 0 ? null : new Date(timestamp));
+        question.setSkipped(input.readInt());
+        question.setDifficultyRating(input.readFloat());
+        question.setRatingCounter(input.readInt());
+        question.setReported(input.readInt());
+        question.setHas_follow_up_question(input.readBoolean());
+        question.setPrevious_question_id(input.readInt());
+
+        int answerCount = input.readInt();
+        if (answerCount >= 0) {
+            List<Answer> answers = new ArrayList<Answer>(answerCount);
+            for (int i = 0; i < answerCount; i++) {
+                answers.add(new Answer(question.getId(), input.readString(), input.readString()));
+            }
+            question.setAnswers(answers);
+        }
+        int tagCount = input.readInt();
+        if (tagCount >= 0) {
+            List<QuestionTag> tags = new ArrayList<QuestionTag>(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                tags.add(new QuestionTag(question.getId(), input.readInt(), input.readString()));
+            }
+            question.setTags(tags);
+        }
+        return question;
+    }
+
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the share of questions read from the cache.
+     * 
+     * @return the hit ratio
+     */
+    public double getHitRatio() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * A cached question and the time it has been read from the database.
+     */
+    private static class Entry {
+
+        final Question question;
+
+        final long written;
+
+        Entry(Question question, long written) {
+            this.question = question;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package cgwap.data_access;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import cgwap.entities.Question;
+import cgwap.entities.QuestionTag;
+import cgwap.util.Config;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Keeps the sets of question ids that decide which questions a player may
+ * play as bitmaps: the playable questions, i.e. the active ones that are
+ * neither follow ups nor reported too often, the questions of every tag and
+ * of every asker, and the questions played by recent players. The questions a
+ * player may play are then computed by a few AND and AND NOT operations
+ * instead of a query.
+ *
+ * The catalog is loaded at startup; the played questions of a player are read
+ * when they are first needed. Afterwards the bitmaps are kept up to date by
+ * the writes on questions, tags and rounds; changes made by other servers
+ * mark them as stale.
+ *
+ */
+public class QuestionCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(QuestionCatalog.class.getName());
+
+    private static QuestionCatalog instance;
+
+    private final BitSet playable = new BitSet();
+
+    private final Map<String, BitSet> tags = new HashMap<String, BitSet>();
+
+    private final Map<Integer, BitSet> owners = new HashMap<Integer, BitSet>();
+
+    private final Cache<Integer, BitSet> played;
+
+    private boolean loaded = false;
+
+    // counts the writes on played questions, reads started before one are not
+    // cached
+    private long version = 0;
+
+    /**
+     * Creates an empty catalog, it is loaded on first use.
+     *
+     * @param players
+     *            maximal number of players whose played questions are kept
+     */
+    public QuestionCatalog(int players) {
+        this.played = CacheBuilder.newBuilder().maximumSize(players).build();
+    }
+
+    /**
+     * Creates and loads the default catalog from the config.
+     */
+    public static synchronized void startup() {
+        instance = new QuestionCatalog(Config.QUESTION_CATALOG_PLAYERS);
+        try {
+            instance.load();
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the question catalog, retrying on first use.", e);
+        }
+    }
+
+    /**
+     * Drops the default catalog.
+     */
+    public static synchronized void shutdown() {
+        instance = null;
+    }
+
+    /**
+     * Returns the default catalog.
+     *
+     * @return the catalog configured from the config
+     */
+    public static synchronized QuestionCatalog getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the playable questions with their askers and tags from the
+     * database, replacing the current ones.
+     *
+     * @throws ApplicationException
+     */
+    public synchronized void load() throws ApplicationException {
+        List<Question> questions = QuestionDatabaseAccess.getPlayable();
+        List<QuestionTag> questionTags = TagsDatabaseAccess.fetch(false);
+
+        playable.clear();
+        owners.clear();
+        tags.clear();
+        for (Question question : questions) {
+            playable.set(question.getId());
+            bitmap(owners, question.getUserId()).set(question.getId());
+        }
+        for (QuestionTag tag : questionTags) {
+            bitmap(tags, tag.getTag()).set(tag.getQuestionId());
+        }
+        loaded = true;
+
+        LOGGER.info("Loaded " + playable.cardinality() + " playable questions with " + tags.size() + " tags.");
+    }
+
+    /**
+     * Returns the questions a player may play.
+     *
+     * @param userId
+     *            the player's id
+     * @param tag
+     *            only questions with this tag, null for all questions
+     * @return a new bitmap of the question ids, owned by the caller
+     * @throws ApplicationException
+     */
+    public BitSet getPlayable(int userId, String tag) throws ApplicationException {
+        BitSet playedByUser = getPlayed(userId);
+
+        synchronized (this) {
+            if (!loaded) {
+                load();
+            }
+
+            BitSet result = (BitSet) playable.clone();
+            if (tag != null) {
+                BitSet tagged = tags.get(tag);
+                if (tagged == null) {
+                    return new BitSet();
+                }
+                result.and(tagged);
+            }
+            BitSet owned = owners.get(userId);
+            if (owned != null) {
+                result.andNot(owned);
+            }
+            result.andNot(playedByUser);
+            return result;
+        }
+    }
+
+    /**
+     * Checks whether a question is still playable, e.g. after it has been
+     * queued for a player.
+     *
+     * @param questionId
+     *            the question's id
+     * @return false, if the question has been retired
+     */
+    public synchronized boolean isPlayable(int questionId) {
+        return !loaded || playable.get(questionId);
+    }
+
+    /**
+     * Marks the catalog as changed elsewhere, it is loaded again on next use.
+     */
+    public synchronized void markStale() {
+        loaded = false;
+        version++;
+        played.invalidateAll();
+    }
+
+    /**
+     * Drops the played questions of a player, they are read again on next
+     * use.
+     *
+     * @param userId
+     *            the player's id
+     */
+    public synchronized void invalidatePlayed(int userId) {
+        version++;
+        played.invalidate(userId);
+    }
+
+    /**
+     * Returns the id of the n-th question of a bitmap in ascending order.
+     *
+     * @param questionIds
+     *            the bitmap
+     * @param rank
+     *            the number of questions preceding the one to return
+     * @return the question's id, -1 if the bitmap holds fewer questions
+     */
+    public static int select(BitSet questionIds, int rank) {
+        long[] words = questionIds.toLongArray();
+        int remaining = rank;
+        for (int i = 0; i < words.length; i++) {
+            int count = Long.bitCount(words[i]);
+            if (remaining < count) {
+                long word = words[i];
+                // drop the lower set bits one by one
+                for (int j = 0; j < remaining; j++) {
+                    word &= word - 1;
+                }
+                return i * Long.SIZE + Long.numberOfTrailingZeros(word);
+            }
+            remaining -= count;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a new question. Follow up questions are never played on their own.
+     *
+     * @param question
+     *            the stored question
+     */
+    synchronized void add(Question question) {
+        if (question.getPrevious_question_id() == 0) {
+            playable.set(question.getId());
+            bitmap(owners, question.getUserId()).set(question.getId());
+        }
+    }
+
+    /**
+     * Removes a question from the playable ones, after it has been deleted,
+     * reported too often or turned into a follow up.
+     *
+     * @param questionId
+     *            the question's id
+     */
+    synchronized void retire(int questionId) {
+        playable.clear(questionId);
+    }
+
+    /**
+     * Adds a tag to a question.
+     *
+     * @param questionId
+     *            the question's id
+     * @param tag
+     *            the lower case tag
+     */
+    synchronized void addTag(int questionId, String tag) {
+        bitmap(tags, tag).set(questionId);
+    }
+
+    /**
+     * Removes a tag from a question.
+     *
+     * @param questionId
+     *            the question's id
+     * @param tag
+     *            the lower case tag
+     */
+    synchronized void removeTag(int questionId, String tag) {
+        BitSet tagged = tags.get(tag);
+        if (tagged != null) {
+            tagged.clear(questionId);
+            if (tagged.isEmpty()) {
+                tags.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * Marks a question as played by a player.
+     *
+     * @param userId
+     *            the player's id
+     * @param questionId
+     *            the question's id
+     */
+    synchronized void addPlayed(int userId, int questionId) {
+        version++;
+        BitSet playedByUser = played.getIfPresent(userId);
+        if (playedByUser != null) {
+            playedByUser.set(questionId);
+        }
+    }
+
+    private BitSet getPlayed(int userId) throws ApplicationException {
+        long readVersion;
+        synchronized (this) {
+            BitSet playedByUser = played.getIfPresent(userId);
+            if (playedByUser != null) {
+                return playedByUser;
+            }
+            readVersion = version;
+        }
+
+        BitSet playedByUser = new BitSet();
+        for (int questionId : RoundsDatabaseAccess.getRoundIdsByUserId(userId, false)) {
+            playedByUser.set(questionId);
+        }
+
+        synchronized (this) {
+            if (readVersion == version) {
+                played.put(userId, playedByUser);
+            }
+        }
+        return playedByUser;
+    }
+
+    private static <K> BitSet bitmap(Map<K, BitSet> bitmaps, K key) {
+        BitSet bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = new BitSet();
+            bitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+}
@@ -1,16 +1,20 @@
 package cgwap.data_access;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.sql.Types;
 import java.util.LinkedList;
 import java.util.List;
 
+import cgwap.entities.Answer;
 import cgwap.entities.Question;
+import cgwap.entities.QuestionStatistics;
+import cgwap.entities.QuestionTag;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
 import cgwap.util.exception_handler.ApplicationException;
 
 /**
@@ -58,6 +62,12 @@ public class QuestionDatabaseAccess {
      */
     protected static final String COL_RATING_COUNTER = "rating_counter";
 
+    /**
+     * The column name for the sum of all ratings, the rating is the sum divided
+     * by the counter.
+     */
+    protected static final String COL_RATING_SUM = "rating_sum";
+
     /**
      * The column name for the times the question has been skipped.
      */
@@ -90,6 +100,107 @@ public class QuestionDatabaseAccess {
      */
     protected static final String COL_PREVIOUS_ID = "previous_id";
 
+    /**
+     * Number of reports after which a question is deactivated.
+     */
+    public static final int REPORT_LIMIT = 3;
+
+    /**
+     * Maximal length of a follow up chain, guards against cyclic links.
+     */
+    private static final int MAX_CHAIN_LENGTH = 100;
+
+    /**
+     * Maps complete questions.
+     */
+    private static final RowMapper<Question> MAPPER = new RowMapper<Question>(COL_QUESTION_ID, COL_QUESTION_TEXT,
+            COL_QUESTION_TIMESTAMP, COL_SKIPPED, COL_DIFFICULTY_RATING, COL_REPORTED, COL_USER_ID, COL_HAS_FOLLOW_UP,
+            COL_PREVIOUS_ID, COL_RATING_COUNTER) {
+        @Override
+        protected Question map(ResultSet resultSet) throws SQLException {
+            Question entity = new Question();
+            entity.setId(resultSet.getInt(1));
+            entity.setQuestionText(resultSet.getString(2));
+            entity.setTimestamp(resultSet.getTimestamp(3));
+            entity.setSkipped(resultSet.getInt(4));
+            entity.setDifficultyRating(resultSet.getFloat(5));
+            entity.setReported(resultSet.getInt(6));
+            entity.setUserId(resultSet.getInt(7));
+            entity.setHas_follow_up_question(resultSet.getBoolean(8));
+            entity.setPrevious_question_id(resultSet.getInt(9));
+            entity.setRatingCounter(resultSet.getInt(10));
+            return entity;
+        }
+    };
+
+    /**
+     * Maps questions of a chain, followed by the arrays of their answers'
+     * urls, their tags' ids, their tags and their answers' record ids.
+     */
+    private static final RowMapper<Question> CHAIN_MAPPER = new RowMapper<Question>() {
+        @Override
+        protected Question map(ResultSet resultSet) throws SQLException {
+            Question entity = MAPPER.map(resultSet);
+
+            List<Answer> answers = new LinkedList<Answer>();
+            String[] urls = (String[]) toArray(resultSet.getArray(11));
+            String[] recordIds = (String[]) toArray(resultSet.getArray(14));
+            for (int i = 0; i < urls.length; i++) {
+                answers.add(new Answer(entity.getId(), urls[i], recordIds[i]));
+            }
+            entity.setAnswers(answers);
+
+            List<QuestionTag> tags = new LinkedList<QuestionTag>();
+            Integer[] tagIds = (Integer[]) toArray(resultSet.getArray(12));
+            String[] tagTexts = (String[]) toArray(resultSet.getArray(13));
+            for (int i = 0; i < tagIds.length; i++) {
+                tags.add(new QuestionTag(entity.getId(), tagIds[i], tagTexts[i]));
+            }
+            entity.setTags(tags);
+
+            return entity;
+        }
+
+        private Object toArray(Array array) throws SQLException {
+            try {
+                return array.getArray();
+            } finally {
+                array.free();
+            }
+        }
+    };
+
+    /**
+     * Maps question ids only.
+     */
+    private static final RowMapper<Integer> ID_MAPPER = RowMapper.forInteger(COL_QUESTION_ID);
+
+    /**
+     * Maps the statistics of questions; queries select the question's id, its
+     * rating, its skips, the number of its rounds and of its passed rounds in
+     * this order.
+     */
+    private static final RowMapper<QuestionStatistics> STATISTICS_MAPPER = new RowMapper<QuestionStatistics>(
+            COL_QUESTION_ID, COL_DIFFICULTY_RATING, COL_SKIPPED) {
+        @Override
+        protected QuestionStatistics map(ResultSet resultSet) throws SQLException {
+            return new QuestionStatistics(resultSet.getInt(1), resultSet.getFloat(2), resultSet.getInt(3),
+                    resultSet.getInt(4), resultSet.getInt(5));
+        }
+    };
+
+    /**
+     * Maps the ids of questions together with the ids of their askers.
+     */
+    private static final RowMapper<Question> OWNER_MAPPER = new RowMapper<Question>(COL_QUESTION_ID, COL_USER_ID) {
+        @Override
+        protected Question map(ResultSet resultSet) throws SQLException {
+            Question entity = new Question(resultSet.getInt(1));
+            entity.setUserId(resultSet.getInt(2));
+            return entity;
+        }
+    };
+
     // *************************************************
     // FETCH
     // *************************************************
@@ -130,7 +241,7 @@ public class QuestionDatabaseAccess {
         List<Question> result = new LinkedList<>();
 
         StringBuilder sqlQuery = new StringBuilder("");
-        sqlQuery.append("SELECT * FROM " + TABLE);
+        sqlQuery.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
 
         PreparedStatement statement = null;
         try {
@@ -194,7 +305,7 @@ public class QuestionDatabaseAccess {
         List<Question> result = new LinkedList<>();
 
         StringBuilder sqlQuery = new StringBuilder("");
-        sqlQuery.append("SELECT * FROM " + TABLE);
+        sqlQuery.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         sqlQuery.append(" WHERE " + COL_USER_ID);
         sqlQuery.append(" <> ? AND " + COL_QUESTION_ID);
         sqlQuery.append(" NOT IN (SELECT " + COL_QUESTION_ID);
@@ -206,7 +317,7 @@ public class QuestionDatabaseAccess {
         sqlQuery.append(" NOT IN (SELECT " + COL_QUESTION_ID);
         sqlQuery.append(" FROM " + QuestionDatabaseAccess.TABLE);
         sqlQuery.append(" WHERE " + QuestionDatabaseAccess.COL_REPORTED);
-        sqlQuery.append(" >= 3  OR " + QuestionDatabaseAccess.COL_PREVIOUS_ID);
+        sqlQuery.append(" >= " + REPORT_LIMIT + "  OR " + QuestionDatabaseAccess.COL_PREVIOUS_ID);
         sqlQuery.append(" != 0);");
 
         PreparedStatement statement = null;
@@ -229,6 +340,130 @@ public class QuestionDatabaseAccess {
         return result;
     }
 
+    /**
+     * Fetches the questions that may be played at all.
+     * 
+     * @return the questions, with only their ids and askers set
+     * @throws ApplicationException
+     */
+    public static List<Question> getPlayable() throws ApplicationException {
+        List<Question> result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.getPlayable(connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'FETCH' statement on the database table to return the
+     * questions that may be played at all, i.e. the active questions that are
+     * no follow up questions and that have not been reported too often.
+     * 
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the questions, with only their ids and askers set
+     * @throws ApplicationException
+     */
+    protected static List<Question> getPlayable(Connection connection) throws ApplicationException {
+
+        List<Question> result = null;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + OWNER_MAPPER.columns());
+        query.append(" FROM " + TABLE);
+        // not deleted, reported or followUps
+        query.append(" WHERE " + COL_IS_ACTIVE);
+        query.append(" AND (" + COL_REPORTED + " >= " + REPORT_LIMIT);
+        query.append(" OR " + COL_PREVIOUS_ID + " != 0) IS NOT TRUE;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                result = OWNER_MAPPER.mapAll(statement.executeQuery());
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Fetches the statistics of the questions that may be played at all.
+     * 
+     * @return the statistics
+     * @throws ApplicationException
+     */
+    public static List<QuestionStatistics> getStatistics() throws ApplicationException {
+        List<QuestionStatistics> result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.getStatistics(connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'FETCH' statement on the database tables to return the
+     * statistics of the questions that may be played at all, counting their
+     * rounds and passed rounds.
+     * 
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the statistics
+     * @throws ApplicationException
+     */
+    protected static List<QuestionStatistics> getStatistics(Connection connection) throws ApplicationException {
+
+        List<QuestionStatistics> result = null;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + STATISTICS_MAPPER.columns("q"));
+        query.append(", COUNT(r." + RoundsDatabaseAccess.COL_ID + ")");
+        query.append(", COUNT(CASE WHEN r." + RoundsDatabaseAccess.COL_PASS + " = '"
+                + RoundsDatabaseAccess.PASSED + "' THEN 1 END)");
+        query.append(" FROM " + TABLE + " q");
+        query.append(" LEFT JOIN " + RoundsDatabaseAccess.TABLE + " r");
+        query.append(" ON r." + RoundsDatabaseAccess.COL_QUESTION_ID + " = q." + COL_QUESTION_ID);
+        // not deleted, reported or followUps
+        query.append(" WHERE q." + COL_IS_ACTIVE);
+        query.append(" AND (q." + COL_REPORTED + " >= " + REPORT_LIMIT);
+        query.append(" OR q." + COL_PREVIOUS_ID + " != 0) IS NOT TRUE");
+        query.append(" GROUP BY " + STATISTICS_MAPPER.columns("q") + ";");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                result = STATISTICS_MAPPER.mapAll(statement.executeQuery());
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
+    }
+
     // *************************************************
     // STORE, UPDATE, DESTROY
     // *************************************************
@@ -286,7 +521,17 @@ public class QuestionDatabaseAccess {
         query.append(QuestionDatabaseAccess.COL_PREVIOUS_ID);
         query.append(", ");
         query.append(QuestionDatabaseAccess.COL_RATING_COUNTER);
-        query.append(") VALUES (?, ?, ?, ?, ?, ?, ?, ?)  RETURNING *;");
+        query.append(", ");
+        query.append(QuestionDatabaseAccess.COL_RATING_SUM);
+        query.append(") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)  RETURNING " + MAPPER.columns() + ";");
+
+        // the asker's estimation counts as the first rating
+        int ratingCounter = entity.getRatingCounter();
+        float ratingSum = entity.getDifficultyRating() * ratingCounter;
+        if (ratingCounter == 0 && entity.getDifficultyRating() > 0) {
+            ratingCounter = 1;
+            ratingSum = entity.getDifficultyRating();
+        }
 
         PreparedStatement statement = null;
         try {
@@ -300,9 +545,16 @@ public class QuestionDatabaseAccess {
                 statement.setInt(5, entity.getUserId());
                 statement.setBoolean(6, entity.isHas_follow_up_question());
                 statement.setInt(7, entity.getPrevious_question_id());
-                statement.setInt(8, entity.getRatingCounter());
-
-                return convertToInstance(statement.executeQuery());
+                statement.setInt(8, ratingCounter);
+                statement.setFloat(9, ratingSum);
+
+                Question result = convertToInstance(statement.executeQuery());
+                if (result != null) {
+                    QuestionCatalog.getInstance().add(result);
+                    QuestionWeights.getInstance().add(result);
+                    InvalidationBus.publish(connection, Entity.QUESTION, result.getId());
+                }
+                return result;
             } finally {
                 if (statement != null) {
                     statement.close();
@@ -314,7 +566,9 @@ public class QuestionDatabaseAccess {
     }
 
     /**
-     * Updates a changed instance in Database.
+     * Updates a changed instance in Database. Only the text and the follow up
+     * links are written; the counters are changed by their own atomic
+     * operations.
      * 
      * @param entity
      *            the instance to save
@@ -355,25 +609,13 @@ public class QuestionDatabaseAccess {
         query.append("(");
         query.append(QuestionDatabaseAccess.COL_QUESTION_TEXT);
         query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_QUESTION_TIMESTAMP);
-        query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_DIFFICULTY_RATING);
-        query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_SKIPPED);
-        query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_REPORTED);
-        query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_USER_ID);
-        query.append(", ");
         query.append(QuestionDatabaseAccess.COL_HAS_FOLLOW_UP);
         query.append(", ");
         query.append(QuestionDatabaseAccess.COL_PREVIOUS_ID);
-        query.append(", ");
-        query.append(QuestionDatabaseAccess.COL_RATING_COUNTER);
-        query.append(") = (?, ?, ?, ?, ?, ?, ?, ?, ?) ");
+        query.append(") = (?, ?, ?) ");
         query.append("WHERE ");
         query.append(QuestionDatabaseAccess.COL_QUESTION_ID);
-        query.append(" = ?  RETURNING *;");
+        query.append(" = ?  RETURNING " + MAPPER.columns() + ";");
 
         PreparedStatement statement = null;
         try {
@@ -381,22 +623,20 @@ public class QuestionDatabaseAccess {
                 // set parameters and execute query
                 statement = connection.prepareStatement(query.toString());
                 statement.setString(1, entity.getQuestionText());
-                if (entity.getTimestamp() != null) {
-                    statement.setTimestamp(2, new Timestamp(entity.getTimestamp().getTime()));
-                } else {
-                    statement.setNull(2, Types.TIMESTAMP);
+                statement.setBoolean(2, entity.isHas_follow_up_question());
+                statement.setInt(3, entity.getPrevious_question_id());
+                statement.setInt(4, entity.getId());
+
+                Question result = convertToInstance(statement.executeQuery());
+                // a question turned into a follow up is not played on its own
+                if (result != null && result.getPrevious_question_id() != 0) {
+                    QuestionCatalog.getInstance().retire(result.getId());
+                    QuestionWeights.getInstance().retire(result.getId());
                 }
-                statement.setFloat(3, entity.getDifficultyRating());
-                statement.setInt(4, entity.getSkipped());
-                statement.setInt(5, entity.getReported());
-                statement.setInt(6, entity.getUserId());
-                statement.setBoolean(7, entity.isHas_follow_up_question());
-                statement.setInt(8, entity.getPrevious_question_id());
-                statement.setInt(9, entity.getRatingCounter());
-                statement.setInt(10, entity.getId());
-
-                return convertToInstance(statement.executeQuery());
+                return result;
             } finally {
+                QuestionCache.getInstance().invalidate(entity.getId());
+                InvalidationBus.publish(connection, Entity.QUESTION, entity.getId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -407,27 +647,252 @@ public class QuestionDatabaseAccess {
 
     }
 
+    // *************************************************
+    // COUNTERS
+    // *************************************************
     /**
-     * Removes an Instance from storage.
+     * Increments the skipped counter of a question.
      * 
      * @param entity
-     *            - the Instance to remove
-     * @return true, if a Instance was deleted; otherwise false
+     *            the question, its counter is set to the new value
+     * @return the new number of skips, 0 if the question does not exist
      * @throws ApplicationException
      */
-    public static boolean delete(Question entity) throws ApplicationException {
-        boolean result = false;
+    public static int incrementSkipped(Question entity) throws ApplicationException {
+        int result = 0;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.incrementSkipped(entity, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs an 'UPDATE' statement on the database table incrementing the
+     * skipped counter in place.
+     * 
+     * @param entity
+     *            the question, its counter is set to the new value
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the new number of skips, 0 if the question does not exist
+     * @throws ApplicationException
+     */
+    protected static int incrementSkipped(Question entity, Connection connection) throws ApplicationException {
+        int result = 0;
+
+        StringBuilder query = new StringBuilder("UPDATE ");
+        query.append(TABLE);
+        query.append(" SET " + COL_SKIPPED);
+        query.append(" = COALESCE(" + COL_SKIPPED + ", 0) + 1");
+        query.append(" WHERE " + COL_QUESTION_ID);
+        query.append(" = ? RETURNING " + COL_SKIPPED + ";");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, entity.getId());
+                ResultSet resultSet = statement.executeQuery();
+
+                if (resultSet.next()) {
+                    result = resultSet.getInt(1);
+                    entity.setSkipped(result);
+                    QuestionWeights.getInstance().setSkipped(entity.getId(), result);
+                }
+            } finally {
+                QuestionCache.getInstance().invalidate(entity.getId());
+                InvalidationBus.publish(connection, Entity.QUESTION_STATISTICS, entity.getId());
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to update", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Increments the reported counter of a question. The question is
+     * deactivated by the same statement once it reaches the
+     * {@link #REPORT_LIMIT}.
+     * 
+     * @param entity
+     *            the question, its counter is set to the new value
+     * @return the new number of reports, 0 if the question does not exist
+     * @throws ApplicationException
+     */
+    public static int incrementReported(Question entity) throws ApplicationException {
+        int result = 0;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.incrementReported(entity, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs an 'UPDATE' statement on the database table incrementing the
+     * reported counter in place and deactivating the question at the limit.
+     * 
+     * @param entity
+     *            the question, its counter is set to the new value
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the new number of reports, 0 if the question does not exist
+     * @throws ApplicationException
+     */
+    protected static int incrementReported(Question entity, Connection connection) throws ApplicationException {
+        int result = 0;
+
+        StringBuilder query = new StringBuilder("UPDATE ");
+        query.append(TABLE);
+        query.append(" SET " + COL_REPORTED);
+        query.append(" = COALESCE(" + COL_REPORTED + ", 0) + 1");
+        // the right hand sides still see the old value
+        query.append(", " + COL_IS_ACTIVE);
+        query.append(" = " + COL_IS_ACTIVE);
+        query.append(" AND COALESCE(" + COL_REPORTED + ", 0) + 1 < " + REPORT_LIMIT);
+        query.append(" WHERE " + COL_QUESTION_ID);
+        query.append(" = ? RETURNING " + COL_REPORTED + ";");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, entity.getId());
+                ResultSet resultSet = statement.executeQuery();
+
+                if (resultSet.next()) {
+                    result = resultSet.getInt(1);
+                    entity.setReported(result);
+                }
+            } finally {
+                if (result >= REPORT_LIMIT) {
+                    QuestionCatalog.getInstance().retire(entity.getId());
+                    QuestionWeights.getInstance().retire(entity.getId());
+                }
+                QuestionCache.getInstance().invalidate(entity.getId());
+                InvalidationBus.publish(connection, Entity.QUESTION, entity.getId());
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to update", e);
+        }
 
-        // entities which depend on entity must also be deleted TODO: if process
-        // of entering a follow up question was canceled a nullpointer is
-        // happening here
-        if (entity.isHas_follow_up_question()) {
-            Question followUp = QuestionDatabaseAccess.getFollowUpQuestion(entity);
+        return result;
+    }
 
-            QuestionDatabaseAccess.delete(followUp);
+    /**
+     * Adds a rating to a question. Sum and number of the ratings are
+     * incremented in place, the difficulty rating is their exact average.
+     * 
+     * @param entity
+     *            the question, its rating and counter are set to the new
+     *            values
+     * @param rating
+     *            the rating to add
+     * @return the new difficulty rating
+     * @throws ApplicationException
+     */
+    public static float addRating(Question entity, float rating) throws ApplicationException {
+        float result = 0;
 
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.addRating(entity, rating, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
         }
 
+        return result;
+    }
+
+    /**
+     * Performs an 'UPDATE' statement on the database table adding a rating to
+     * the sum and incrementing the counter in place.
+     * 
+     * @param entity
+     *            the question, its rating and counter are set to the new
+     *            values
+     * @param rating
+     *            the rating to add
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the new difficulty rating
+     * @throws ApplicationException
+     */
+    protected static float addRating(Question entity, float rating, Connection connection)
+            throws ApplicationException {
+        float result = entity.getDifficultyRating();
+
+        StringBuilder query = new StringBuilder("UPDATE ");
+        query.append(TABLE);
+        query.append(" SET " + COL_RATING_SUM);
+        query.append(" = " + COL_RATING_SUM + " + ?");
+        query.append(", " + COL_RATING_COUNTER);
+        query.append(" = " + COL_RATING_COUNTER + " + 1");
+        // the right hand sides still see the old values
+        query.append(", " + COL_DIFFICULTY_RATING);
+        query.append(" = (" + COL_RATING_SUM + " + ?) / (" + COL_RATING_COUNTER + " + 1)");
+        query.append(" WHERE " + COL_QUESTION_ID);
+        query.append(" = ? RETURNING " + COL_DIFFICULTY_RATING + ", " + COL_RATING_COUNTER + ";");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setFloat(1, rating);
+                statement.setFloat(2, rating);
+                statement.setInt(3, entity.getId());
+                ResultSet resultSet = statement.executeQuery();
+
+                if (resultSet.next()) {
+                    result = resultSet.getFloat(1);
+                    entity.setDifficultyRating(result);
+                    entity.setRatingCounter(resultSet.getInt(2));
+                    QuestionWeights.getInstance().setRating(entity.getId(), result);
+                }
+            } finally {
+                QuestionCache.getInstance().invalidate(entity.getId());
+                InvalidationBus.publish(connection, Entity.QUESTION_STATISTICS, entity.getId());
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to update", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes an Instance and all its follow up questions from storage.
+     * 
+     * @param entity
+     *            - the Instance to remove
+     * @return true, if a Instance was deleted; otherwise false
+     * @throws ApplicationException
+     */
+    public static boolean delete(Question entity) throws ApplicationException {
+        boolean result = false;
+
         Connection connection = null;
         try {
             connection = ConnectionPool.getConnection();
@@ -441,8 +906,8 @@ public class QuestionDatabaseAccess {
     }
 
     /**
-     * Performs a 'DELETE' statement on the database table to destroy an
-     * existing Instance.
+     * Performs an 'UPDATE' statement on the database table deactivating an
+     * existing Instance together with the chain of its follow up questions.
      * 
      * @param entity
      *            the Instance to remove
@@ -458,7 +923,14 @@ public class QuestionDatabaseAccess {
         sqlQuery.append(" SET " + COL_IS_ACTIVE);
         sqlQuery.append(" = false");
         sqlQuery.append(" WHERE " + COL_QUESTION_ID);
-        sqlQuery.append(" = ?;");
+        // UNION stops on cyclic links
+        sqlQuery.append(" IN (WITH RECURSIVE chain(" + COL_QUESTION_ID + ") AS (");
+        sqlQuery.append("SELECT CAST(? AS INTEGER)");
+        sqlQuery.append(" UNION SELECT q." + COL_QUESTION_ID);
+        sqlQuery.append(" FROM " + TABLE + " q");
+        sqlQuery.append(" JOIN chain c ON q." + COL_PREVIOUS_ID + " = c." + COL_QUESTION_ID);
+        sqlQuery.append(") SELECT " + COL_QUESTION_ID + " FROM chain)");
+        sqlQuery.append(" RETURNING " + COL_QUESTION_ID + ";");
 
         PreparedStatement statement = null;
         try {
@@ -466,10 +938,17 @@ public class QuestionDatabaseAccess {
                 statement = connection.prepareStatement(sqlQuery.toString());
                 statement.setInt(1, entity.getId());
 
-                int resultRows = statement.executeUpdate();
+                List<Integer> deactivated = ID_MAPPER.mapAll(statement.executeQuery());
+                for (int questionId : deactivated) {
+                    QuestionCatalog.getInstance().retire(questionId);
+                    QuestionWeights.getInstance().retire(questionId);
+                    InvalidationBus.publish(connection, Entity.QUESTION, questionId);
+                }
 
-                return resultRows > 0;
+                return !deactivated.isEmpty();
             } finally {
+                // the chain of the question has been deactivated
+                QuestionCache.getInstance().invalidateAll();
                 if (statement != null) {
                     statement.close();
                 }
@@ -480,11 +959,74 @@ public class QuestionDatabaseAccess {
         }
     }
 
+    /**
+     * Marks a question as having no follow up question anymore.
+     * 
+     * @param questionId
+     *            the question's id
+     * @return true, if the question was updated; otherwise false
+     * @throws ApplicationException
+     */
+    public static boolean removeFollowUp(int questionId) throws ApplicationException {
+        boolean result = false;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.removeFollowUp(questionId, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs an 'UPDATE' statement on the database table clearing the follow
+     * up flag of a question.
+     * 
+     * @param questionId
+     *            the question's id
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return true, if the question was updated; otherwise false
+     * @throws ApplicationException
+     */
+    protected static boolean removeFollowUp(int questionId, Connection connection) throws ApplicationException {
+
+        StringBuilder sqlQuery = new StringBuilder("UPDATE ");
+        sqlQuery.append(TABLE);
+        sqlQuery.append(" SET " + COL_HAS_FOLLOW_UP);
+        sqlQuery.append(" = false");
+        sqlQuery.append(" WHERE " + COL_QUESTION_ID);
+        sqlQuery.append(" = ?;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(sqlQuery.toString());
+                statement.setInt(1, questionId);
+
+                return statement.executeUpdate() > 0;
+            } finally {
+                QuestionCache.getInstance().invalidate(questionId);
+                InvalidationBus.publish(connection, Entity.QUESTION, questionId);
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to update", e);
+        }
+    }
+
     // *************************************************
     // GET
     // *************************************************
     /**
-     * Return a existing Instance from storage, based on its id.
+     * Return a existing Instance from storage, based on its id, with its
+     * answers and tags attached. Questions are read through the
+     * {@link QuestionCache}.
      * 
      * @param entity
      *            an entity with the ID of the Instance to load
@@ -492,13 +1034,23 @@ public class QuestionDatabaseAccess {
      * @throws ApplicationException
      */
     public static Question getQuestionById(Question entity) throws ApplicationException {
-        Question result = null;
+        QuestionCache cache = QuestionCache.getInstance();
+        Question result = cache.get(entity.getId());
+        if (result != null) {
+            return result;
+        }
 
+        long version = cache.getVersion();
         Connection connection = null;
 
         try {
             connection = ConnectionPool.getConnection();
             result = QuestionDatabaseAccess.getQuestionById(entity, connection);
+            if (result != null) {
+                result.setAnswers(AnswersDatabaseAccess.getAnswerUrlByQuestionId(result.getId(), connection));
+                result.setTags(TagsDatabaseAccess.getTagsByQuestionId(result.getId(), connection));
+                cache.put(result, version);
+            }
         } finally {
             ConnectionPool.releaseConnection(connection);
         }
@@ -522,7 +1074,7 @@ public class QuestionDatabaseAccess {
         Question result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + QuestionDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + QuestionDatabaseAccess.TABLE;
         sqlString += " WHERE " + QuestionDatabaseAccess.COL_QUESTION_ID + " = ?";
 
         PreparedStatement statement = null;
@@ -582,7 +1134,7 @@ public class QuestionDatabaseAccess {
         Question result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + QuestionDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + QuestionDatabaseAccess.TABLE;
         sqlString += " WHERE " + QuestionDatabaseAccess.COL_PREVIOUS_ID + " = ?";
 
         PreparedStatement statement = null;
@@ -605,6 +1157,102 @@ public class QuestionDatabaseAccess {
         return result;
     }
 
+    /**
+     * Returns an active question followed by its chain of active follow up
+     * questions, each with its answers and tags attached.
+     * 
+     * @param questionId
+     *            the id of the first question of the chain
+     * @return the chain in order, empty if the question does not exist or is
+     *         not active
+     * @throws ApplicationException
+     */
+    public static List<Question> getQuestionChain(int questionId) throws ApplicationException {
+        List<Question> result = null;
+
+        Connection connection = null;
+
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.getQuestionChain(questionId, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a recursive 'SELECT' statement on the database table returning
+     * a question chain with answers and tags in a single round trip.
+     * 
+     * @param questionId
+     *            the id of the first question of the chain
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the chain in order, empty if the question does not exist or is
+     *         not active
+     * @throws ApplicationException
+     */
+    protected static List<Question> getQuestionChain(int questionId, Connection connection)
+            throws ApplicationException {
+
+        List<Question> result = null;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("WITH RECURSIVE chain AS (");
+        query.append("SELECT " + MAPPER.columns("q") + ", 1 AS depth");
+        query.append(" FROM " + TABLE + " q");
+        query.append(" WHERE q." + COL_QUESTION_ID + " = ?");
+        query.append(" AND q." + COL_IS_ACTIVE);
+        query.append(" UNION ALL");
+        query.append(" SELECT " + MAPPER.columns("q") + ", c.depth + 1");
+        query.append(" FROM " + TABLE + " q");
+        query.append(" JOIN chain c ON q." + COL_PREVIOUS_ID + " = c." + COL_QUESTION_ID);
+        query.append(" WHERE q." + COL_IS_ACTIVE);
+        query.append(" AND c.depth < " + MAX_CHAIN_LENGTH);
+        query.append(")");
+        query.append(" SELECT " + MAPPER.columns("c"));
+        query.append(", ARRAY(SELECT a." + AnswersDatabaseAccess.COL_URL);
+        query.append(" FROM " + AnswersDatabaseAccess.TABLE + " a");
+        query.append(" WHERE a." + AnswersDatabaseAccess.COL_QUESTION_ID + " = c." + COL_QUESTION_ID);
+        query.append(" ORDER BY a." + AnswersDatabaseAccess.COL_URL + ")");
+        query.append(", ARRAY(SELECT t." + TagsDatabaseAccess.COL_TAG_ID);
+        query.append(" FROM " + TagsDatabaseAccess.TABLE + " t");
+        query.append(" WHERE t." + TagsDatabaseAccess.COL_QUESTION_ID + " = c." + COL_QUESTION_ID);
+        query.append(" ORDER BY t." + TagsDatabaseAccess.COL_TAG_ID + ")");
+        query.append(", ARRAY(SELECT d." + TagsDatabaseAccess.COL_TAG);
+        query.append(" FROM " + TagsDatabaseAccess.TABLE + " t");
+        query.append(" JOIN " + TagsDatabaseAccess.TABLE_DICTIONARY + " d");
+        query.append(" ON d." + TagsDatabaseAccess.COL_TAG_ID + " = t." + TagsDatabaseAccess.COL_TAG_ID);
+        query.append(" WHERE t." + TagsDatabaseAccess.COL_QUESTION_ID + " = c." + COL_QUESTION_ID);
+        query.append(" ORDER BY t." + TagsDatabaseAccess.COL_TAG_ID + ")");
+        query.append(", ARRAY(SELECT a." + AnswersDatabaseAccess.COL_RECORD_ID);
+        query.append(" FROM " + AnswersDatabaseAccess.TABLE + " a");
+        query.append(" WHERE a." + AnswersDatabaseAccess.COL_QUESTION_ID + " = c." + COL_QUESTION_ID);
+        query.append(" ORDER BY a." + AnswersDatabaseAccess.COL_URL + ")");
+        query.append(" FROM chain c");
+        query.append(" ORDER BY c.depth;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, questionId);
+                ResultSet resultSet = statement.executeQuery();
+                result = CHAIN_MAPPER.mapAll(resultSet);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
+    }
+
     /**
      * Return a existing Instance from storage, based on its user id.
      * 
@@ -646,9 +1294,9 @@ public class QuestionDatabaseAccess {
         List<Question> result = null;
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_USER_ID);
-        query.append("=" + currentUserId);
+        query.append(" = ?");
         query.append(" AND " + COL_IS_ACTIVE);
         query.append(" = true;");
 
@@ -657,6 +1305,7 @@ public class QuestionDatabaseAccess {
             try {
                 // set parameters and execute query
                 statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, currentUserId);
 
                 ResultSet resultSet = statement.executeQuery();
                 result = convertToInstances(resultSet);
@@ -719,7 +1368,7 @@ public class QuestionDatabaseAccess {
         query.append(" WHERE (" + COL_QUESTION_TEXT);
         query.append(" = ?");
         query.append(" AND " + COL_REPORTED);
-        query.append(" <= 3);");
+        query.append(" <= " + REPORT_LIMIT + ");");
 
         PreparedStatement statement = null;
         try {
@@ -745,15 +1394,75 @@ public class QuestionDatabaseAccess {
     }
 
     /**
-     * Checks if a given question belongs to the user.
+     * Checks if a given active question belongs to the user.
      * 
-     * @param entity
-     *            an entity with the id of the Instances to load
+     * @param userId
+     *            the user's id
+     * @param questionId
+     *            the question's id
      * @return whether the instance could be found
      * @throws ApplicationException
      */
     public static boolean doesUserOwn(int userId, int questionId) throws ApplicationException {
-        return QuestionDatabaseAccess.getQuestionsByUserId(userId).contains(new Question(questionId));
+        boolean result = false;
+
+        Connection connection = null;
+
+        try {
+            connection = ConnectionPool.getConnection();
+            result = QuestionDatabaseAccess.doesUserOwn(userId, questionId, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table to check if a given
+     * active question belongs to the user. Only the id is transferred.
+     * 
+     * @param userId
+     *            the user's id
+     * @param questionId
+     *            the question's id
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return whether the instance could be found
+     * @throws ApplicationException
+     */
+    protected static boolean doesUserOwn(int userId, int questionId, Connection connection)
+            throws ApplicationException {
+        boolean result = false;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + ID_MAPPER.columns() + " FROM " + TABLE);
+        query.append(" WHERE " + COL_QUESTION_ID);
+        query.append(" = ?");
+        query.append(" AND " + COL_USER_ID);
+        query.append(" = ?");
+        query.append(" AND " + COL_IS_ACTIVE);
+        query.append(" = true;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                // set parameters and execute query
+                statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, questionId);
+                statement.setInt(2, userId);
+
+                result = ID_MAPPER.mapOne(statement.executeQuery()) != null;
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
     }
 
     /**
@@ -793,7 +1502,7 @@ public class QuestionDatabaseAccess {
         Question result = new Question();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_USER_ID);
         query.append("=" + currentUserId);
         query.append(" ORDER BY " + COL_QUESTION_TIMESTAMP);
@@ -857,7 +1566,7 @@ public class QuestionDatabaseAccess {
         Question result = new Question();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_USER_ID);
         query.append("=" + currentUserId);
         query.append(" ORDER BY " + COL_QUESTION_MODIFIED);
@@ -894,28 +1603,7 @@ public class QuestionDatabaseAccess {
      * @throws ApplicationException
      */
     protected static Question convertToInstance(ResultSet resultSet) throws ApplicationException {
-        Question entity = null;
-
-        try {
-            if (resultSet.next()) {
-                entity = new Question();
-                entity.setId(resultSet.getInt(COL_QUESTION_ID));
-                entity.setQuestionText(resultSet.getString(COL_QUESTION_TEXT));
-                entity.setTimestamp(resultSet.getTimestamp(COL_QUESTION_TIMESTAMP));
-                entity.setSkipped(resultSet.getInt(COL_SKIPPED));
-                entity.setDifficultyRating(resultSet.getFloat(COL_DIFFICULTY_RATING));
-                entity.setReported(resultSet.getInt(COL_REPORTED));
-                entity.setUserId(resultSet.getInt(COL_USER_ID));
-                entity.setHas_follow_up_question(resultSet.getBoolean(COL_HAS_FOLLOW_UP));
-                entity.setPrevious_question_id(resultSet.getInt(COL_PREVIOUS_ID));
-                entity.setRatingCounter(resultSet.getInt(COL_RATING_COUNTER));
-                return entity;
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.", e);
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -928,16 +1616,7 @@ public class QuestionDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<Question> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<Question> entities = new LinkedList<Question>();
-
-        Question entity = QuestionDatabaseAccess.convertToInstance(resultSet);
-
-        while (entity != null) {
-            entities.add(entity);
-            entity = QuestionDatabaseAccess.convertToInstance(resultSet);
-        }
-
-        return entities;
+        return MAPPER.mapAll(resultSet);
     }
 
-}
\ No newline at end of file
+}
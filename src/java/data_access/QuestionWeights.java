@@ -0,0 +1,354 @@
+package cgwap.data_access;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import cgwap.entities.Question;
+import cgwap.entities.QuestionStatistics;
+import cgwap.enums.UserLevel;
+import cgwap.util.Config;
+import cgwap.util.exception_handler.ApplicationException;
+import cgwap.util.selection.AliasTable;
+
+/**
+ * Weights the playable questions for every user level, so that players get
+ * questions matching their level more often and questions skipped a lot less
+ * often. The weights consider the difficulty rating, the share of skips and
+ * the share of passed rounds of a question; every question keeps a small
+ * weight, so none is starved.
+ *
+ * A question is drawn from an alias table per level in constant time. The
+ * statistics are kept up to date by the writes on questions and rounds, and
+ * read again after changes by other servers; the tables are rebuilt from them
+ * in the background when they have changed.
+ *
+ */
+public class QuestionWeights {
+
+    private static final Logger LOGGER = Logger.getLogger(QuestionWeights.class.getName());
+
+    /**
+     * Draws per question before a caller falls back to a uniform choice, in
+     * case only few of the weighted questions are left to the player.
+     */
+    private static final int MAX_ATTEMPTS = 32;
+
+    /**
+     * The weight no question falls below.
+     */
+    private static final double MIN_WEIGHT = 0.05;
+
+    /**
+     * The highest difficulty rating.
+     */
+    private static final int MAX_RATING = 5;
+
+    private static QuestionWeights instance;
+
+    private final Map<Integer, QuestionStatistics> statistics = new HashMap<Integer, QuestionStatistics>();
+
+    private final ScheduledExecutorService rebuilder;
+
+    private boolean changed = false;
+
+    // the statistics have been changed by another server
+    private volatile boolean stale = false;
+
+    // keeps a slower rebuild from replacing the tables of a later one
+    private final Object rebuildLock = new Object();
+
+    private volatile Tables tables;
+
+    /**
+     * Creates empty weights; they are loaded and rebuilt periodically once
+     * {@link #load()} has been called.
+     *
+     * @param rebuildSeconds
+     *            seconds between the checks for changed statistics
+     */
+    public QuestionWeights(int rebuildSeconds) {
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("question-weights").build());
+        this.rebuilder.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (stale) {
+                    reload();
+                } else {
+                    rebuildIfChanged();
+                }
+            }
+        }, rebuildSeconds, rebuildSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates and loads the default weights from the config.
+     */
+    public static synchronized void startup() {
+        instance = new QuestionWeights(Config.QUESTION_WEIGHTS_REBUILD);
+        try {
+            instance.load();
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the question statistics, questions are drawn uniformly.", e);
+        }
+    }
+
+    /**
+     * Stops rebuilding the default weights.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.rebuilder.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the default weights.
+     *
+     * @return the weights configured from the config
+     */
+    public static synchronized QuestionWeights getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the statistics of the playable questions and builds the tables.
+     *
+     * @throws ApplicationException
+     */
+    public void load() throws ApplicationException {
+        synchronized (this) {
+            statistics.clear();
+            for (QuestionStatistics questionStatistics : QuestionDatabaseAccess.getStatistics()) {
+                statistics.put(questionStatistics.getQuestionId(), questionStatistics);
+            }
+            changed = true;
+        }
+        rebuildIfChanged();
+    }
+
+    /**
+     * Marks the statistics as changed by another server, they are read again
+     * before the next rebuild.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Draws a question for a player.
+     *
+     * @param level
+     *            the player's level
+     * @param candidates
+     *            the questions the player may play
+     * @param random
+     *            the source of randomness
+     * @return the question's id, -1 if none of the candidates was drawn
+     */
+    public int draw(UserLevel level, BitSet candidates, Random random) {
+        Tables current = tables;
+        if (current == null) {
+            return -1;
+        }
+
+        AliasTable table = current.levels[level.ordinal()];
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            int questionId = current.questionIds[table.draw(random)];
+            if (candidates.get(questionId)) {
+                return questionId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the weight of a question for a level.
+     *
+     * @param questionStatistics
+     *            the question's statistics
+     * @param level
+     *            the player's level
+     * @return the weight, at least {@link #MIN_WEIGHT}
+     */
+    static double weigh(QuestionStatistics questionStatistics, UserLevel level) {
+        int levels = UserLevel.values().length;
+
+        // the levels are spread over the ratings, unrated questions fit
+        // moderately
+        double target = 1 + (MAX_RATING - 1) * (double) level.ordinal() / (levels - 1);
+        double rating = questionStatistics.getDifficultyRating();
+        double distance = rating > 0 ? rating - target : 1;
+        double difficultyFit = 1 / (1 + distance * distance);
+
+        // smoothed, so questions with few rounds count as average
+        int rounds = questionStatistics.getRounds();
+        double skipRate = Math.min(1, (questionStatistics.getSkipped() + 1.0) / (rounds + 2.0));
+        double passRate = (questionStatistics.getPassed() + 1.0) / (rounds + 2.0);
+
+        // beginners should mostly pass, veterans may fail more often
+        double expectedPassRate = 0.8 - 0.4 * level.ordinal() / (levels - 1);
+        double passFit = 1 - Math.abs(passRate - expectedPassRate);
+
+        return Math.max(MIN_WEIGHT, difficultyFit * (1 - skipRate) * passFit);
+    }
+
+    /**
+     * Adds a new question. Follow up questions are never drawn on their own.
+     *
+     * @param question
+     *            the stored question
+     */
+    synchronized void add(Question question) {
+        if (question.getPrevious_question_id() == 0) {
+            statistics.put(question.getId(), new QuestionStatistics(question.getId(),
+                    question.getDifficultyRating(), question.getSkipped(), 0, 0));
+            changed = true;
+        }
+    }
+
+    /**
+     * Removes a question that is no longer playable.
+     *
+     * @param questionId
+     *            the question's id
+     */
+    synchronized void retire(int questionId) {
+        changed |= statistics.remove(questionId) != null;
+    }
+
+    /**
+     * Sets the number of skips of a question.
+     *
+     * @param questionId
+     *            the question's id
+     * @param skipped
+     *            the new number of skips
+     */
+    synchronized void setSkipped(int questionId, int skipped) {
+        QuestionStatistics questionStatistics = statistics.get(questionId);
+        if (questionStatistics != null) {
+            questionStatistics.setSkipped(skipped);
+            changed = true;
+        }
+    }
+
+    /**
+     * Sets the difficulty rating of a question.
+     *
+     * @param questionId
+     *            the question's id
+     * @param rating
+     *            the new rating
+     */
+    synchronized void setRating(int questionId, float rating) {
+        QuestionStatistics questionStatistics = statistics.get(questionId);
+        if (questionStatistics != null) {
+            questionStatistics.setDifficultyRating(rating);
+            changed = true;
+        }
+    }
+
+    /**
+     * Counts a round started on a question.
+     *
+     * @param questionId
+     *            the question's id
+     */
+    synchronized void addRound(int questionId) {
+        QuestionStatistics questionStatistics = statistics.get(questionId);
+        if (questionStatistics != null) {
+            questionStatistics.setRounds(questionStatistics.getRounds() + 1);
+            changed = true;
+        }
+    }
+
+    /**
+     * Counts a passed round of a question.
+     *
+     * @param questionId
+     *            the question's id
+     */
+    synchronized void addPass(int questionId) {
+        QuestionStatistics questionStatistics = statistics.get(questionId);
+        if (questionStatistics != null) {
+            questionStatistics.setPassed(questionStatistics.getPassed() + 1);
+            changed = true;
+        }
+    }
+
+    private void reload() {
+        stale = false;
+        try {
+            load();
+        } catch (ApplicationException e) {
+            stale = true;
+            LOGGER.log(Level.WARNING, "Failed to reload the question statistics, keeping the previous ones.", e);
+        }
+    }
+
+    private void rebuildIfChanged() {
+        synchronized (rebuildLock) {
+            int[] questionIds;
+            double[][] weights;
+
+            // the weights are computed under the lock, the tables outside of it
+            synchronized (this) {
+                if (!changed) {
+                    return;
+                }
+                changed = false;
+
+                UserLevel[] levels = UserLevel.values();
+                questionIds = new int[statistics.size()];
+                weights = new double[levels.length][statistics.size()];
+                int i = 0;
+                for (QuestionStatistics questionStatistics : statistics.values()) {
+                    questionIds[i] = questionStatistics.getQuestionId();
+                    for (UserLevel level : levels) {
+                        weights[level.ordinal()][i] = weigh(questionStatistics, level);
+                    }
+                    i++;
+                }
+            }
+
+            if (questionIds.length == 0) {
+                tables = null;
+                return;
+            }
+            AliasTable[] levels = new AliasTable[weights.length];
+            for (int level = 0; level < weights.length; level++) {
+                levels[level] = new AliasTable(weights[level]);
+            }
+            tables = new Tables(questionIds, levels);
+        }
+    }
+
+    /**
+     * The alias tables of all levels over the same questions.
+     */
+    private static class Tables {
+
+        final int[] questionIds;
+
+        final AliasTable[] levels;
+
+        Tables(int[] questionIds, AliasTable[] levels) {
+            this.questionIds = questionIds;
+            this.levels = levels;
+        }
+    }
+}
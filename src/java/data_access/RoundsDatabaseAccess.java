@@ -12,6 +12,8 @@ import java.util.List;
 
 import cgwap.entities.Round;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
 import cgwap.util.exception_handler.ApplicationException;
 
 /**
@@ -68,6 +70,11 @@ public class RoundsDatabaseAccess {
      */
     protected static final String COL_PASS = "pass";
 
+    /**
+     * The status of a passed round.
+     */
+    protected static final String PASSED = "pass";
+
     /**
      * The column name for an optional comment made by the player.
      */
@@ -83,6 +90,33 @@ public class RoundsDatabaseAccess {
      */
     protected static final String COL_DURATION = "duration";
 
+    /**
+     * Maps complete rounds.
+     */
+    private static final RowMapper<Round> MAPPER = new RowMapper<Round>(COL_ID, COL_QUESTION_ID, COL_USER_ID,
+            COL_START_TIME, COL_END_TIME, COL_SCORE, COL_LIVES_LEFT, COL_PASS, COL_USER_COMMENT, COL_DURATION) {
+        @Override
+        protected Round map(ResultSet resultSet) throws SQLException {
+            Round entity = new Round();
+            entity.setId(resultSet.getInt(1));
+            entity.setQuestionId(resultSet.getInt(2));
+            entity.setUserId(resultSet.getInt(3));
+            entity.setStart(resultSet.getTimestamp(4));
+            entity.setEnd(resultSet.getTimestamp(5));
+            entity.setScore(resultSet.getInt(6));
+            entity.setLivesLeft(resultSet.getInt(7));
+            entity.setPass(resultSet.getString(8));
+            entity.setUserComment(resultSet.getString(9));
+            entity.setDuration(resultSet.getInt(10));
+            return entity;
+        }
+    };
+
+    /**
+     * Maps the ids of the played questions only.
+     */
+    private static final RowMapper<Integer> QUESTION_ID_MAPPER = RowMapper.forInteger(COL_QUESTION_ID);
+
     /**
      * Stores a new Instance in Database.
      * 
@@ -127,7 +161,7 @@ public class RoundsDatabaseAccess {
         query.append(RoundsDatabaseAccess.COL_USER_COMMENT);
         query.append(", ");
         query.append(COL_LIVES_LEFT);
-        query.append(") VALUES (?, ?, ?, ?, ?, ?)  RETURNING *;");
+        query.append(") VALUES (?, ?, ?, ?, ?, ?)  RETURNING " + MAPPER.columns() + ";");
 
         PreparedStatement statement = null;
         try {
@@ -145,7 +179,13 @@ public class RoundsDatabaseAccess {
                 statement.setString(5, entity.getUserComment());
                 statement.setInt(6, entity.getLivesLeft());
 
-                return convertToInstance(statement.executeQuery());
+                Round result = convertToInstance(statement.executeQuery());
+                if (result != null) {
+                    QuestionCatalog.getInstance().addPlayed(result.getUserId(), result.getQuestionId());
+                    QuestionWeights.getInstance().addRound(result.getQuestionId());
+                    InvalidationBus.publish(connection, Entity.ROUND, result.getUserId());
+                }
+                return result;
             } finally {
                 if (statement != null) {
                     statement.close();
@@ -255,10 +295,11 @@ public class RoundsDatabaseAccess {
         // LOGGER.fine("Perform 'UPDATE' on table " +
         // QuestionDatabaseAccess.TABLE);
 
-        // build query
+        // build query; the previous pass is read from the locked row, so a
+        // pass is counted once even if the round is updated repeatedly
         StringBuilder query = new StringBuilder("UPDATE ");
         query.append(TABLE);
-        query.append(" SET ");
+        query.append(" r SET ");
         query.append("(");
         query.append(COL_END_TIME);
         query.append(", ");
@@ -270,9 +311,11 @@ public class RoundsDatabaseAccess {
         query.append(", ");
         query.append(COL_DURATION);
         query.append(") = (?, ?, ?, ?, ?) ");
-        query.append("WHERE ");
+        query.append("FROM (SELECT " + COL_PASS + " FROM " + TABLE + " WHERE " + COL_ID);
+        query.append(" = ? FOR UPDATE) previous ");
+        query.append("WHERE r.");
         query.append(COL_ID);
-        query.append(" = ?  RETURNING *;");
+        query.append(" = ?  RETURNING " + MAPPER.columns("r") + ", previous." + COL_PASS + " AS previous_pass;");
 
         PreparedStatement statement = null;
         try {
@@ -285,8 +328,16 @@ public class RoundsDatabaseAccess {
                 statement.setInt(4, entity.getLivesLeft());
                 statement.setInt(5, (int) entity.getDuration());
                 statement.setInt(6, entity.getId());
+                statement.setInt(7, entity.getId());
 
-                return convertToInstance(statement.executeQuery());
+                ResultSet resultSet = statement.executeQuery();
+                Round result = convertToInstance(resultSet);
+                if (result != null && PASSED.equals(result.getPass())
+                        && !PASSED.equals(resultSet.getString("previous_pass"))) {
+                    QuestionWeights.getInstance().addPass(result.getQuestionId());
+                    InvalidationBus.publish(connection, Entity.ROUND, result.getUserId());
+                }
+                return result;
             } finally {
                 if (statement != null) {
                     statement.close();
@@ -338,12 +389,12 @@ public class RoundsDatabaseAccess {
             throws ApplicationException {
         // LOGGER.fine("SELECT on table " + RoundDatabaseAccess.DB_TABLE);
 
-        List<Integer> result = new ArrayList<Integer>();
+        List<Integer> result = null;
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT " + COL_QUESTION_ID + " FROM " + TABLE);
+        query.append("SELECT " + QUESTION_ID_MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_USER_ID);
-        query.append("=" + currentUserId);
+        query.append(" = ?");
 
         // if round has to be a successful one
         if (needToBePass) {
@@ -359,11 +410,10 @@ public class RoundsDatabaseAccess {
             try {
                 // set parameters and execute query
                 statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, currentUserId);
 
                 ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    result.add(resultSet.getInt(1));
-                }
+                result = QUESTION_ID_MAPPER.mapAll(resultSet);
 
             } finally {
                 if (statement != null) {
@@ -419,9 +469,9 @@ public class RoundsDatabaseAccess {
         List<Round> result = new LinkedList<Round>();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_USER_ID);
-        query.append("=" + currentUserId);
+        query.append(" = ?");
 
         // if round has to be a successful one
         if (needToBePass) {
@@ -437,6 +487,7 @@ public class RoundsDatabaseAccess {
             try {
                 // set parameters and execute query
                 statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, currentUserId);
                 ResultSet resultSet = statement.executeQuery();
                 result = convertToInstances(resultSet);
 
@@ -490,7 +541,7 @@ public class RoundsDatabaseAccess {
         List<Round> result = new ArrayList<Round>();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         query.append(" WHERE " + COL_PASS);
         query.append("='pass'");
         query.append(" ORDER BY " + COL_DURATION);
@@ -595,27 +646,7 @@ public class RoundsDatabaseAccess {
      * @throws ApplicationException
      */
     protected static Round convertToInstance(ResultSet resultSet) throws ApplicationException {
-        Round entity = null;
-        try {
-            if (resultSet.next()) {
-                entity = new Round();
-                entity.setId(resultSet.getInt(COL_ID));
-                entity.setQuestionId(resultSet.getInt(COL_QUESTION_ID));
-                entity.setUserId(resultSet.getInt(COL_USER_ID));
-                entity.setStart(resultSet.getTimestamp(COL_START_TIME));
-                entity.setEnd(resultSet.getTimestamp(COL_END_TIME));
-                entity.setScore(resultSet.getInt(COL_SCORE));
-                entity.setLivesLeft(resultSet.getInt(COL_LIVES_LEFT));
-                entity.setPass(resultSet.getString(COL_PASS));
-                entity.setUserComment(resultSet.getString(COL_USER_COMMENT));
-                entity.setDuration(resultSet.getInt(COL_DURATION));
-                return entity;
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.", e);
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -628,19 +659,7 @@ public class RoundsDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<Round> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<Round> entities = new LinkedList<Round>();
-
-        Round entity = RoundsDatabaseAccess.convertToInstance(resultSet);
-
-        // while there are tags left and none have been listed already
-        while (entity != null) {
-            entities.add(entity);
-            entity = RoundsDatabaseAccess.convertToInstance(resultSet);
-
-        }
-
-        return entities;
-
+        return MAPPER.mapAll(resultSet);
     }
 
 }
@@ -0,0 +1,23 @@
+package cgwap.data_access;
+
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Receives the rows of a streamed query one by one, so that large results
+ * never have to be held in memory as a whole.
+ *
+ * @param <T>
+ *            the entity type the rows are converted into
+ */
+public interface RowHandler<T> {
+
+    /**
+     * Handles a single row.
+     *
+     * @param entity
+     *            the row converted into an entity
+     * @return true to receive the next row, false to stop streaming
+     * @throws ApplicationException
+     */
+    boolean handle(T entity) throws ApplicationException;
+}
@@ -0,0 +1,137 @@
+package cgwap.data_access;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.List;
+
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Converts the rows of a ResultSet into entities. A mapper is bound to a fixed
+ * list of columns: queries select exactly {@link #columns()}, so the values
+ * can be read by their position instead of being looked up by name.
+ *
+ * Mappers hold no state and are shared by all queries of a DAO.
+ *
+ * @param <T>
+ *            the entity type the rows are converted into
+ */
+abstract class RowMapper<T> {
+
+    private final String[] columnNames;
+
+    private final String columns;
+
+    /**
+     * Creates a mapper for the given columns.
+     *
+     * @param columnNames
+     *            the columns in the order {@link #map(ResultSet)} reads them
+     */
+    RowMapper(String... columnNames) {
+        this.columnNames = columnNames;
+        this.columns = join(columnNames, "");
+    }
+
+    /**
+     * Creates a mapper that reads a single integer column, e.g. an id.
+     *
+     * @param column
+     *            the column to read
+     * @return the mapper
+     */
+    static RowMapper<Integer> forInteger(String column) {
+        return new RowMapper<Integer>(column) {
+            @Override
+            protected Integer map(ResultSet resultSet) throws SQLException {
+                return resultSet.getInt(1);
+            }
+        };
+    }
+
+    /**
+     * Returns the column list to select, separated by commas.
+     *
+     * @return the column list
+     */
+    String columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the column list to select, qualified by a table alias.
+     *
+     * @param alias
+     *            the table alias
+     * @return the column list
+     */
+    String columns(String alias) {
+        return join(columnNames, alias + ".");
+    }
+
+    /**
+     * Converts the current row. The columns are numbered starting with 1 in
+     * the order given at construction.
+     *
+     * @param resultSet
+     *            the ResultSet positioned on the row to convert
+     * @return the entity
+     * @throws SQLException
+     */
+    protected abstract T map(ResultSet resultSet) throws SQLException;
+
+    /**
+     * Converts the next row of a ResultSet.
+     *
+     * @param resultSet
+     *            result of a get/fetch on the database table
+     * @return the entity, null if there are no rows left
+     * @throws ApplicationException
+     */
+    T mapOne(ResultSet resultSet) throws ApplicationException {
+        try {
+            if (resultSet.next()) {
+                return map(resultSet);
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to convert resultSet to entity.", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Converts all remaining rows of a ResultSet.
+     *
+     * @param resultSet
+     *            result of a fetch on the database table
+     * @return the entities
+     * @throws ApplicationException
+     */
+    List<T> mapAll(ResultSet resultSet) throws ApplicationException {
+        List<T> entities = new LinkedList<T>();
+
+        try {
+            while (resultSet.next()) {
+                entities.add(map(resultSet));
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to convert resultSet to entity.", e);
+        }
+
+        return entities;
+    }
+
+    private static String join(String[] columnNames, String prefix) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(prefix);
+            builder.append(columnNames[i]);
+        }
+        return builder.toString();
+    }
+}
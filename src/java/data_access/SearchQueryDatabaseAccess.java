@@ -60,6 +60,25 @@ public class SearchQueryDatabaseAccess {
      */
     protected static final String COL_FILTER_TYPE = "filter_type";
 
+    /**
+     * Maps complete search queries.
+     */
+    private static final RowMapper<SearchQuery> MAPPER = new RowMapper<SearchQuery>(COL_ROUND_ID, COL_QUERY,
+            COL_QUERY_TIMESTAMP, COL_FILTER_USED, COL_FILTER_LANGUAGE, COL_FILTER_PROVIDER, COL_FILTER_TYPE) {
+        @Override
+        protected SearchQuery map(ResultSet resultSet) throws SQLException {
+            SearchQuery entity = new SearchQuery();
+            entity.setRoundId(resultSet.getInt(1));
+            entity.setQuery(resultSet.getString(2));
+            entity.setTimestamp(resultSet.getTimestamp(3));
+            entity.setFilterUsed(resultSet.getBoolean(4));
+            entity.setFilterLanguage(resultSet.getString(5));
+            entity.setFilterProvider(resultSet.getString(6));
+            entity.setFilterType(resultSet.getString(7));
+            return entity;
+        }
+    };
+
     // *************************************************
     // FETCH
     // *************************************************
@@ -98,7 +117,7 @@ public class SearchQueryDatabaseAccess {
         List<SearchQuery> result = new LinkedList<>();
 
         StringBuilder sqlQuery = new StringBuilder("");
-        sqlQuery.append("SELECT * FROM " + TABLE);
+        sqlQuery.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
 
         PreparedStatement statement = null;
         try {
@@ -154,7 +173,7 @@ public class SearchQueryDatabaseAccess {
         List<SearchQuery> result = new LinkedList<>();
 
         StringBuilder sqlQuery = new StringBuilder("");
-        sqlQuery.append("SELECT * FROM " + TABLE);
+        sqlQuery.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
         sqlQuery.append(" WHERE " + COL_ROUND_ID);
         sqlQuery.append(" = ?;");
         PreparedStatement statement = null;
@@ -230,7 +249,7 @@ public class SearchQueryDatabaseAccess {
         query.append(SearchQueryDatabaseAccess.COL_FILTER_LANGUAGE);
         query.append(", ");
         query.append(SearchQueryDatabaseAccess.COL_FILTER_TYPE);
-        query.append(") VALUES (?, ?, ?, ?, ?, ?)  RETURNING *;");
+        query.append(") VALUES (?, ?, ?, ?, ?, ?)  RETURNING " + MAPPER.columns() + ";");
 
         PreparedStatement statement = null;
         try {
@@ -388,25 +407,7 @@ public class SearchQueryDatabaseAccess {
      * @throws ApplicationException
      */
     protected static SearchQuery convertToInstance(ResultSet resultSet) throws ApplicationException {
-        SearchQuery entity = null;
-
-        try {
-            if (resultSet.next()) {
-                entity = new SearchQuery();
-                entity.setRoundId(resultSet.getInt(COL_ROUND_ID));
-                entity.setQuery(resultSet.getString(COL_QUERY));
-                entity.setTimestamp(resultSet.getTimestamp(COL_QUERY_TIMESTAMP));
-                entity.setFilterUsed(resultSet.getBoolean(COL_FILTER_USED));
-                entity.setFilterLanguage(resultSet.getString(COL_FILTER_LANGUAGE));
-                entity.setFilterProvider(resultSet.getString(COL_FILTER_PROVIDER));
-                entity.setFilterType(resultSet.getString(COL_FILTER_TYPE));
-                return entity;
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.", e);
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -419,16 +420,7 @@ public class SearchQueryDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<SearchQuery> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<SearchQuery> entities = new LinkedList<SearchQuery>();
-
-        SearchQuery entity = SearchQueryDatabaseAccess.convertToInstance(resultSet);
-
-        while (entity != null) {
-            entities.add(entity);
-            entity = SearchQueryDatabaseAccess.convertToInstance(resultSet);
-        }
-
-        return entities;
+        return MAPPER.mapAll(resultSet);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,264 @@
+package cgwap.data_access;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cgwap.entities.QuestionTag;
+import cgwap.util.Config;
+import cgwap.util.cache.CacheSnapshot;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Keeps the tags in use by questions in memory, so that the tag selection and
+ * the autocompletion need not query the database. The tags are held in an
+ * immutable snapshot, sorted once when it is loaded; readers never lock.
+ *
+ * Storing or deleting a tag invalidates the snapshot, it is loaded again by
+ * the next reader. The snapshot is also reloaded after a while anyway, in case
+ * the database is changed from elsewhere.
+ *
+ * The tags are kept in the {@link CacheSnapshot} across restarts; the first
+ * reader takes them from there, if they are not due for a reload yet.
+ *
+ */
+public class TagCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(TagCatalog.class.getName());
+
+    /**
+     * Name and version of the section in the cache snapshot, the version has
+     * to be increased whenever the encoding of the tags changes.
+     */
+    private static final String SNAPSHOT_SECTION = "tags";
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static TagCatalog instance;
+
+    private final long refreshMillis;
+
+    // counts the invalidations, a snapshot loaded before one is stale
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates a catalog.
+     *
+     * @param refreshSeconds
+     *            seconds after which the tags are read again
+     */
+    public TagCatalog(int refreshSeconds) {
+        this.refreshMillis = refreshSeconds * 1000L;
+    }
+
+    /**
+     * Creates the default catalog from the config.
+     */
+    public static synchronized void startup() {
+        instance = new TagCatalog(Config.TAG_CATALOG_REFRESH);
+    }
+
+    /**
+     * Drops the default catalog.
+     */
+    public static synchronized void shutdown() {
+        instance = null;
+    }
+
+    /**
+     * Adds the tags of the default catalog to the snapshot.
+     *
+     * @param snapshot
+     *            the snapshot written at shutdown
+     * @throws IOException
+     */
+    public static synchronized void save(CacheSnapshot.Writer snapshot) throws IOException {
+        if (instance == null || instance.snapshot == null) {
+            return;
+        }
+        Snapshot current = instance.snapshot;
+
+        CacheSnapshot.Output output = snapshot.section(SNAPSHOT_SECTION, SNAPSHOT_VERSION);
+        output.writeLong(current.loaded);
+        // the default tag is added again on restore
+        List<QuestionTag> tags = current.selection.subList(1, current.selection.size());
+        output.writeInt(tags.size());
+        for (QuestionTag tag : tags) {
+            output.writeInt(tag.getQuestionId());
+            output.writeInt(tag.getTagId());
+            output.writeString(tag.getTag());
+        }
+    }
+
+    /**
+     * Returns the default catalog.
+     *
+     * @return the catalog configured from the config
+     */
+    public static synchronized TagCatalog getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the tags to choose questions by, sorted, with the default tag
+     * first.
+     *
+     * @return an unmodifiable list of the tags
+     * @throws ApplicationException
+     *             if the tags have never been loaded and cannot be read
+     */
+    public List<QuestionTag> getTags() throws ApplicationException {
+        return getSnapshot().selection;
+    }
+
+    /**
+     * Returns the tags starting with a prefix, ignoring case.
+     *
+     * @param prefix
+     *            the beginning of the tag typed so far
+     * @param limit
+     *            maximal number of tags to return
+     * @return the matching tags in ascending order, empty if the prefix is
+     *         blank
+     * @throws ApplicationException
+     *             if the tags have never been loaded and cannot be read
+     */
+    public List<String> complete(String prefix, int limit) throws ApplicationException {
+        List<String> result = new ArrayList<String>();
+        if (prefix == null || prefix.trim().isEmpty()) {
+            return result;
+        }
+
+        String lowerPrefix = prefix.trim().toLowerCase();
+        String[] tags = getSnapshot().tags;
+
+        // every tag with the prefix follows the prefix's insertion point
+        int index = Arrays.binarySearch(tags, lowerPrefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (; index < tags.length && result.size() < limit && tags[index].startsWith(lowerPrefix); index++) {
+            result.add(tags[index]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Marks the tags as changed, the next reader loads them again.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    private Snapshot getSnapshot() throws ApplicationException {
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            return current;
+        }
+        return reload();
+    }
+
+    private boolean isFresh(Snapshot current) {
+        return current != null && current.version == version.get()
+                && System.currentTimeMillis() - current.loaded < refreshMillis;
+    }
+
+    private synchronized Snapshot reload() throws ApplicationException {
+        // loaded by another reader in the meantime
+        Snapshot current = snapshot;
+        if (isFresh(current)) {
+            return current;
+        }
+
+        long readVersion = version.get();
+        if (current == null && readVersion == 0) {
+            Snapshot restored = restore(CacheSnapshot.getInstance());
+            if (isFresh(restored)) {
+                snapshot = restored;
+                return restored;
+            }
+        }
+
+        long loaded = System.currentTimeMillis();
+        try {
+            snapshot = new Snapshot(TagsDatabaseAccess.fetch(true), readVersion, loaded);
+        } catch (ApplicationException e) {
+            if (current == null) {
+                throw e;
+            }
+            LOGGER.log(Level.WARNING, "Failed to reload the tags, keeping the previous ones.", e);
+            return current;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the tags of the snapshot, they are used only if nothing has been
+     * invalidated since startup.
+     */
+    private Snapshot restore(CacheSnapshot cacheSnapshot) {
+        CacheSnapshot.Input input = cacheSnapshot.take(SNAPSHOT_SECTION, SNAPSHOT_VERSION,
+                (int) (refreshMillis / 1000));
+        if (input == null) {
+            return null;
+        }
+
+        try {
+            long loaded = input.readLong();
+            int count = input.readInt();
+            List<QuestionTag> tags = new ArrayList<QuestionTag>(count);
+            for (int i = 0; i < count; i++) {
+                tags.add(new QuestionTag(input.readInt(), input.readInt(), input.readString()));
+            }
+            LOGGER.info("Restored " + count + " tags from the cache snapshot.");
+            return new Snapshot(tags, 0, loaded);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore the tags from the cache snapshot.", e);
+            return null;
+        }
+    }
+
+    /**
+     * The tags as read at one point in time, never changed after creation.
+     */
+    private static class Snapshot {
+
+        final String[] tags;
+
+        final List<QuestionTag> selection;
+
+        final long version;
+
+        final long loaded;
+
+        Snapshot(List<QuestionTag> fetched, long version, long loaded) {
+            // tags are stored in lower case, so the natural order of the
+            // strings matches the order of the tags
+            Collections.sort(fetched);
+
+            String[] tags = new String[fetched.size()];
+            List<QuestionTag> selection = new ArrayList<QuestionTag>(fetched.size() + 1);
+            selection.add(new QuestionTag(Config.DEFAULT_TAG));
+            int i = 0;
+            for (QuestionTag tag : fetched) {
+                tags[i++] = tag.getTag();
+                selection.add(tag);
+            }
+
+            this.tags = tags;
+            this.selection = Collections.unmodifiableList(selection);
+            this.version = version;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -9,20 +9,32 @@ import java.util.List;
 
 import cgwap.entities.QuestionTag;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
 import cgwap.util.exception_handler.ApplicationException;
 
 /**
- * Accesses the table containing the tags. It supports the persistence
- * functions CRUD(create, read, update,
- * delete).
+ * Accesses the tables containing the tags. Every tag is stored once in the tag
+ * dictionary and linked to its questions by id. It supports the persistence
+ * functions CRUD(create, read, update, delete).
  */
 
 public class TagsDatabaseAccess {
 
     /**
-     * The table's name.
+     * The name of the table linking questions to tags.
      */
-    protected static final String TABLE = "tags";
+    protected static final String TABLE = "question_tags";
+
+    /**
+     * The name of the tag dictionary table, which holds every tag exactly once.
+     */
+    protected static final String TABLE_DICTIONARY = "tag_dictionary";
+
+    /**
+     * The name of the former free-text tags table, only used for migration.
+     */
+    protected static final String TABLE_LEGACY = "tags";
 
     /**
      * The column name for the identifier.
@@ -30,10 +42,37 @@ public class TagsDatabaseAccess {
     protected static final String COL_QUESTION_ID = "question_id";
 
     /**
-     * The column name for the answer's url.
+     * The column name for the tag's identifier in the dictionary.
+     */
+    protected static final String COL_TAG_ID = "tag_id";
+
+    /**
+     * The column name for the tag's text.
      */
     protected static final String COL_TAG = "tag";
 
+    /**
+     * SQL state signaling the violation of a unique constraint.
+     */
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Maps tags of questions; queries select the question's id, the tag's id
+     * and the tag's text in this order.
+     */
+    private static final RowMapper<QuestionTag> MAPPER = new RowMapper<QuestionTag>(COL_QUESTION_ID, COL_TAG_ID,
+            COL_TAG) {
+        @Override
+        protected QuestionTag map(ResultSet resultSet) throws SQLException {
+            return new QuestionTag(resultSet.getInt(1), resultSet.getInt(2), resultSet.getString(3));
+        }
+    };
+
+    /**
+     * Maps question ids only.
+     */
+    private static final RowMapper<Integer> QUESTION_ID_MAPPER = RowMapper.forInteger(COL_QUESTION_ID);
+
     /**
      * Stores a new Instance in Database.
      * 
@@ -57,16 +96,32 @@ public class TagsDatabaseAccess {
         return result;
     }
 
+    /**
+     * Links a tag to a question. The tag is added to the dictionary first, if
+     * it is not yet known.
+     * 
+     * @param entity
+     *            - the Instance to save
+     * @param connection
+     *            - the database connection to perform the statement on
+     * @return the saved instance, null if the question already has this tag
+     * @throws ApplicationException
+     */
     protected static QuestionTag store(QuestionTag entity, Connection connection) throws ApplicationException {
+        String tag = entity.getTag().toLowerCase();
+        int tagId = TagsDatabaseAccess.storeInDictionary(tag, connection);
 
-        // build query
+        // build query, the primary key makes sure a tag is stored only once per
+        // question
         StringBuilder query = new StringBuilder("INSERT INTO ");
         query.append(TagsDatabaseAccess.TABLE);
         query.append("(");
         query.append(TagsDatabaseAccess.COL_QUESTION_ID);
         query.append(",");
-        query.append(TagsDatabaseAccess.COL_TAG);
-        query.append(") VALUES (?,?) RETURNING *;");
+        query.append(TagsDatabaseAccess.COL_TAG_ID);
+        query.append(") SELECT ?, ?");
+        query.append(" WHERE NOT EXISTS (SELECT 1 FROM " + TABLE);
+        query.append(" WHERE " + COL_QUESTION_ID + " = ? AND " + COL_TAG_ID + " = ?);");
 
         PreparedStatement statement = null;
         try {
@@ -74,9 +129,111 @@ public class TagsDatabaseAccess {
                 // set parameters and execute query
                 statement = connection.prepareStatement(query.toString());
                 statement.setInt(1, entity.getQuestionId());
-                statement.setString(2, entity.getTag().toLowerCase());
+                statement.setInt(2, tagId);
+                statement.setInt(3, entity.getQuestionId());
+                statement.setInt(4, tagId);
+
+                if (statement.executeUpdate() == 0) {
+                    return null;
+                }
+
+                QuestionCatalog.getInstance().addTag(entity.getQuestionId(), tag);
+                return new QuestionTag(entity.getQuestionId(), tagId, tag);
+            } finally {
+                QuestionCache.getInstance().invalidate(entity.getQuestionId());
+                TagCatalog.getInstance().invalidate();
+                InvalidationBus.publish(connection, Entity.TAG, entity.getQuestionId());
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                // stored concurrently by another request
+                return null;
+            }
+            throw new ApplicationException("Failed to store", e);
+        }
+    }
 
-                return convertToInstance(statement.executeQuery());
+    /**
+     * Returns the dictionary id of a tag, adding the tag to the dictionary if
+     * it is not yet known.
+     * 
+     * @param tag
+     *            the lower case tag
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the tag's id
+     * @throws ApplicationException
+     */
+    private static int storeInDictionary(String tag, Connection connection) throws ApplicationException {
+        int tagId = TagsDatabaseAccess.getTagId(tag, connection);
+        if (tagId > 0) {
+            return tagId;
+        }
+
+        StringBuilder query = new StringBuilder("INSERT INTO ");
+        query.append(TagsDatabaseAccess.TABLE_DICTIONARY);
+        query.append("(");
+        query.append(TagsDatabaseAccess.COL_TAG);
+        query.append(") VALUES (?) RETURNING " + COL_TAG_ID + ";");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setString(1, tag);
+                ResultSet resultSet = statement.executeQuery();
+
+                if (resultSet.next()) {
+                    tagId = resultSet.getInt(1);
+                }
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                throw new ApplicationException("Failed to store tag " + tag, e);
+            }
+            // added concurrently by another request
+            tagId = TagsDatabaseAccess.getTagId(tag, connection);
+        }
+
+        return tagId;
+    }
+
+    /**
+     * Looks up the dictionary id of a tag.
+     * 
+     * @param tag
+     *            the lower case tag
+     * @param connection
+     *            the database connection to perform the statement on
+     * @return the tag's id, 0 if the tag is not in the dictionary
+     * @throws ApplicationException
+     */
+    private static int getTagId(String tag, Connection connection) throws ApplicationException {
+        int tagId = 0;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + COL_TAG_ID);
+        query.append(" FROM " + TABLE_DICTIONARY);
+        query.append(" WHERE " + COL_TAG);
+        query.append(" = ?;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setString(1, tag);
+                ResultSet resultSet = statement.executeQuery();
+
+                if (resultSet.next()) {
+                    tagId = resultSet.getInt(1);
+                }
             } finally {
                 if (statement != null) {
                     statement.close();
@@ -85,6 +242,8 @@ public class TagsDatabaseAccess {
         } catch (SQLException e) {
             throw new ApplicationException("Failed to select", e);
         }
+
+        return tagId;
     }
 
     /**
@@ -118,40 +277,43 @@ public class TagsDatabaseAccess {
     private static List<QuestionTag> fetch(Connection connection, boolean distinctTags) throws ApplicationException {
         List<QuestionTag> result = null;
 
+        StringBuilder query = new StringBuilder("");
         if (!distinctTags) {
             // build query
-            StringBuilder query = new StringBuilder("SELECT * FROM ");
-            query.append(TagsDatabaseAccess.TABLE);
+            query.append("SELECT t." + COL_QUESTION_ID);
+            query.append(", d." + COL_TAG_ID);
+            query.append(", d." + COL_TAG);
+            query.append(" FROM " + TABLE + " t");
+            query.append(" JOIN " + TABLE_DICTIONARY + " d");
+            query.append(" ON d." + COL_TAG_ID + " = t." + COL_TAG_ID);
             query.append(";");
         }
         else {
-            // build query
-
-            StringBuilder query = new StringBuilder("SELECT DISTINCT ON (");
-            query.append(TagsDatabaseAccess.COL_TAG);
-            query.append(") ");
-            query.append(TagsDatabaseAccess.COL_TAG);
-            query.append(", ");
-            query.append(TagsDatabaseAccess.COL_QUESTION_ID);
-            query.append(" FROM ");
-            query.append(TagsDatabaseAccess.TABLE);
-            query.append(";");
+            // build query, every tag is listed once in the dictionary; only
+            // tags still in use by a question are of interest
+            query.append("SELECT 0 AS " + COL_QUESTION_ID);
+            query.append(", d." + COL_TAG_ID);
+            query.append(", d." + COL_TAG);
+            query.append(" FROM " + TABLE_DICTIONARY + " d");
+            query.append(" WHERE EXISTS (SELECT 1 FROM " + TABLE + " t");
+            query.append(" WHERE t." + COL_TAG_ID + " = d." + COL_TAG_ID + ")");
+            query.append(" ORDER BY d." + COL_TAG + ";");
+        }
 
-            PreparedStatement statement = null;
+        PreparedStatement statement = null;
+        try {
             try {
-                try {
-                    // set parameters and execute query
-                    statement = connection.prepareStatement(query.toString());
-
-                    result = convertToInstances(statement.executeQuery());
-                } finally {
-                    if (statement != null) {
-                        statement.close();
-                    }
+                // set parameters and execute query
+                statement = connection.prepareStatement(query.toString());
+
+                result = convertToInstances(statement.executeQuery());
+            } finally {
+                if (statement != null) {
+                    statement.close();
                 }
-            } catch (SQLException e) {
-                throw new ApplicationException("Failed to select", e);
             }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to select", e);
         }
 
         return result;
@@ -160,14 +322,16 @@ public class TagsDatabaseAccess {
     /**
      * Fetches question ids with a specific tag.
      * 
+     * @param tagToChooseQuestionBy
+     *            the tag
      * @param currentUserId
      *            the active user's id
-     * @return the desired question
+     * @return the ids of the desired questions
      * @throws ApplicationException
      */
-    public static List<QuestionTag> getQuestionIdsByTag(String tagToChooseQuestionBy, int currentUserId)
+    public static List<Integer> getQuestionIdsByTag(String tagToChooseQuestionBy, int currentUserId)
             throws ApplicationException {
-        List<QuestionTag> result = new LinkedList<QuestionTag>();
+        List<Integer> result = null;
 
         Connection connection = null;
         try {
@@ -182,38 +346,46 @@ public class TagsDatabaseAccess {
 
     /**
      * Fetches question ids with a specific tag (but only those that have not
-     * been deleted, reported too often or are followUp questions).
+     * been deleted, reported too often, are followUp questions or have been
+     * asked or played by the active user).
      * 
+     * @param tagToChooseQuestionBy
+     *            the tag
      * @param currentUserId
      *            the active user's id
      * @param connection
      *            the database connection to perform the statement on
-     * @return the desired question
+     * @return the ids of the desired questions
      * @throws ApplicationException
      */
-    protected static List<QuestionTag> getQuestionIdsByTag(String tagToChooseQuestionBy, int currentUserId,
+    protected static List<Integer> getQuestionIdsByTag(String tagToChooseQuestionBy, int currentUserId,
             Connection connection)
             throws ApplicationException {
 
-        List<QuestionTag> entities = new LinkedList<QuestionTag>();
+        List<Integer> entities = null;
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT *");
-        query.append(" FROM " + TABLE);
-        query.append(" WHERE " + COL_TAG);
+        query.append("SELECT " + QUESTION_ID_MAPPER.columns("t"));
+        query.append(" FROM " + TABLE + " t");
+        query.append(" JOIN " + TABLE_DICTIONARY + " d");
+        query.append(" ON d." + COL_TAG_ID + " = t." + COL_TAG_ID);
+        query.append(" JOIN " + QuestionDatabaseAccess.TABLE + " q");
+        query.append(" ON q." + QuestionDatabaseAccess.COL_QUESTION_ID + " = t." + COL_QUESTION_ID);
+        query.append(" WHERE d." + COL_TAG);
         // and not yet played by active user
-        query.append(" = ?  AND " + COL_QUESTION_ID);
+        query.append(" = ?  AND t." + COL_QUESTION_ID);
         query.append(" NOT IN (SELECT " + COL_QUESTION_ID);
         query.append(" FROM " + RoundsDatabaseAccess.TABLE);
         query.append(" WHERE " + UserDatabaseAccess.COL_USER_ID);
         query.append(" = ?)");
+        // and not asked by active user
+        query.append(" AND q." + QuestionDatabaseAccess.COL_USER_ID);
+        query.append(" != ?");
         // and not deleted, reported or followUps
-        query.append(" AND " + COL_QUESTION_ID);
-        query.append(" NOT IN (SELECT " + COL_QUESTION_ID);
-        query.append(" FROM " + QuestionDatabaseAccess.TABLE);
-        query.append(" WHERE " + QuestionDatabaseAccess.COL_REPORTED);
-        query.append(" >= 3  OR " + QuestionDatabaseAccess.COL_PREVIOUS_ID);
-        query.append(" != 0);");
+        query.append(" AND q." + QuestionDatabaseAccess.COL_IS_ACTIVE);
+        query.append(" AND (q." + QuestionDatabaseAccess.COL_REPORTED);
+        query.append(" >= " + QuestionDatabaseAccess.REPORT_LIMIT + "  OR q." + QuestionDatabaseAccess.COL_PREVIOUS_ID);
+        query.append(" != 0) IS NOT TRUE;");
 
         PreparedStatement statement = null;
         try {
@@ -222,8 +394,9 @@ public class TagsDatabaseAccess {
                 statement = connection.prepareStatement(query.toString());
                 statement.setString(1, tagToChooseQuestionBy);
                 statement.setInt(2, currentUserId);
+                statement.setInt(3, currentUserId);
                 ResultSet resultSet = statement.executeQuery();
-                entities = convertToInstances(resultSet);
+                entities = QUESTION_ID_MAPPER.mapAll(resultSet);
 
             } finally {
                 if (statement != null) {
@@ -275,9 +448,13 @@ public class TagsDatabaseAccess {
         List<QuestionTag> entities = new LinkedList<QuestionTag>();
 
         StringBuilder query = new StringBuilder("");
-        query.append("SELECT *");
-        query.append(" FROM " + TABLE);
-        query.append(" WHERE " + COL_QUESTION_ID);
+        query.append("SELECT t." + COL_QUESTION_ID);
+        query.append(", d." + COL_TAG_ID);
+        query.append(", d." + COL_TAG);
+        query.append(" FROM " + TABLE + " t");
+        query.append(" JOIN " + TABLE_DICTIONARY + " d");
+        query.append(" ON d." + COL_TAG_ID + " = t." + COL_TAG_ID);
+        query.append(" WHERE t." + COL_QUESTION_ID);
         query.append(" = ?;");
 
         PreparedStatement statement = null;
@@ -341,20 +518,29 @@ public class TagsDatabaseAccess {
         sqlQuery.append(TABLE);
         sqlQuery.append(" WHERE " + COL_QUESTION_ID);
         sqlQuery.append(" = ?");
-        sqlQuery.append(" AND " + COL_TAG);
-        sqlQuery.append(" = ?;");
+        sqlQuery.append(" AND " + COL_TAG_ID);
+        sqlQuery.append(" = (SELECT " + COL_TAG_ID);
+        sqlQuery.append(" FROM " + TABLE_DICTIONARY);
+        sqlQuery.append(" WHERE " + COL_TAG);
+        sqlQuery.append(" = ?);");
 
         PreparedStatement statement = null;
         try {
             try {
                 statement = connection.prepareStatement(sqlQuery.toString());
                 statement.setInt(1, entity.getQuestionId());
-                statement.setString(2, entity.getTag());
+                statement.setString(2, entity.getTag().toLowerCase());
 
                 int resultRows = statement.executeUpdate();
+                if (resultRows > 0) {
+                    QuestionCatalog.getInstance().removeTag(entity.getQuestionId(), entity.getTag().toLowerCase());
+                }
 
                 return resultRows > 0;
             } finally {
+                QuestionCache.getInstance().invalidate(entity.getQuestionId());
+                TagCatalog.getInstance().invalidate();
+                InvalidationBus.publish(connection, Entity.TAG, entity.getQuestionId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -439,20 +625,7 @@ public class TagsDatabaseAccess {
      * @throws ApplicationException
      */
     protected static QuestionTag convertToInstance(ResultSet resultSet) throws ApplicationException {
-        QuestionTag entity = null;
-
-        try {
-            if (resultSet.next()) {
-                entity = new QuestionTag();
-                entity.setQuestionId(resultSet.getInt(COL_QUESTION_ID));
-                entity.setTag(resultSet.getString(COL_TAG));
-
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.");
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -465,18 +638,7 @@ public class TagsDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<QuestionTag> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<QuestionTag> entities = new LinkedList<QuestionTag>();
-
-        QuestionTag entity = TagsDatabaseAccess.convertToInstance(resultSet);
-
-        // while there are tags left and none have been listed already
-        while (entity != null) {
-            entities.add(entity);
-            entity = TagsDatabaseAccess.convertToInstance(resultSet);
-
-        }
-
-        return entities;
+        return MAPPER.mapAll(resultSet);
     }
 
 }
@@ -4,12 +4,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import cgwap.entities.User;
 import cgwap.enums.UserLevel;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.database.InvalidationBus.Entity;
 import cgwap.util.exception_handler.ApplicationException;
 
 /**
@@ -70,12 +72,99 @@ public class UserDatabaseAccess {
      * The database table column name for the user's status.
      */
     protected static final String COL_REGISTERED = "registered";
+
+    /**
+     * Number of rows transferred per round trip while streaming.
+     */
+    private static final int STREAM_FETCH_SIZE = 100;
+
+    /**
+     * Maps complete users, including the credentials.
+     */
+    private static final RowMapper<User> MAPPER = new RowMapper<User>(COL_USER_ID, COL_EMAIL, COL_PASSWORD_HASH,
+            COL_IS_ADMIN, COL_NICKNAME, COL_XP, COL_LEVEL, COL_REGISTERED, COL_IS_ACTIVE) {
+        @Override
+        protected User map(ResultSet resultSet) throws SQLException {
+            User entity = new User();
+            entity.setId(resultSet.getInt(1));
+            entity.setEmail(resultSet.getString(2));
+            entity.setHashedPassword(resultSet.getString(3));
+            entity.setAdmin(resultSet.getBoolean(4));
+            entity.setNickname(resultSet.getString(5));
+            entity.setXp(resultSet.getInt(6));
+            entity.setLevel(UserLevel.valueOfString(resultSet.getString(7)));
+            entity.setRegistered(resultSet.getTimestamp(8));
+            entity.setActive(resultSet.getBoolean(9));
+            return entity;
+        }
+    };
+
+    /**
+     * Maps the public part of users, without email and credentials.
+     */
+    private static final RowMapper<User> SUMMARY_MAPPER = new RowMapper<User>(COL_USER_ID, COL_IS_ADMIN,
+            COL_NICKNAME, COL_XP, COL_LEVEL, COL_IS_ACTIVE) {
+        @Override
+        protected User map(ResultSet resultSet) throws SQLException {
+            User entity = new User();
+            entity.setId(resultSet.getInt(1));
+            entity.setAdmin(resultSet.getBoolean(2));
+            entity.setNickname(resultSet.getString(3));
+            entity.setXp(resultSet.getInt(4));
+            entity.setLevel(UserLevel.valueOfString(resultSet.getString(5)));
+            entity.setActive(resultSet.getBoolean(6));
+            return entity;
+        }
+    };
     
 
+    /**
+     * Versions of the users, bumped on every change of a user. Users share a
+     * slot, so a change may bump the version of other users as well, which
+     * only causes them to be read again.
+     */
+    private static final AtomicIntegerArray VERSIONS = new AtomicIntegerArray(1024);
+
     // static class
     private UserDatabaseAccess() {
     }
 
+    /**
+     * Returns the version of a user, which changes whenever the user is
+     * updated or deactivated, by this server or another one. It has to be
+     * taken before the user is read.
+     * 
+     * @param userId
+     *            - the user's id
+     * @return the version
+     */
+    public static int getVersion(int userId) {
+        return VERSIONS.get(slot(userId));
+    }
+
+    /**
+     * Marks a user as changed, users read before are stale.
+     * 
+     * @param userId
+     *            - the user's id
+     */
+    static void bumpVersion(int userId) {
+        VERSIONS.incrementAndGet(slot(userId));
+    }
+
+    /**
+     * Marks all users as changed.
+     */
+    static void bumpAllVersions() {
+        for (int i = 0; i < VERSIONS.length(); i++) {
+            VERSIONS.incrementAndGet(i);
+        }
+    }
+
+    private static int slot(int userId) {
+        return (userId & Integer.MAX_VALUE) % VERSIONS.length();
+    }
+
     // *************************************************
     // FETCH
     // *************************************************
@@ -91,7 +180,9 @@ public class UserDatabaseAccess {
 
     /**
      * Returns a List of a limited number of Instances in storage, after the
-     * offset was jumped.
+     * offset was jumped. The database has to read all skipped rows, use
+     * {@link #fetchAfter(int, int)} or {@link #fetchByXp(User, int)} to page
+     * through the users.
      * 
      * @param limit
      *            - maximal number of Instances to be returned
@@ -134,7 +225,7 @@ public class UserDatabaseAccess {
         List<User> result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + UserDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
         sqlString += " OFFSET ?";
         if (limit != 0) {
             sqlString += " LIMIT ?";
@@ -166,6 +257,223 @@ public class UserDatabaseAccess {
         return result;
     }
 
+    /**
+     * Returns a page of Instances ordered by their id, starting right after the
+     * given id. Unlike an offset the position is found by the primary key, so
+     * all pages are equally fast.
+     * 
+     * @param lastUserId
+     *            - id of the last Instance of the previous page, 0 for the
+     *            first page
+     * @param limit
+     *            - maximal number of Instances to be returned
+     * @return a List of Instances
+     * @throws ApplicationException
+     */
+    public static List<User> fetchAfter(int lastUserId, int limit) throws ApplicationException {
+        List<User> result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = UserDatabaseAccess.fetchAfter(lastUserId, limit, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table to return a page of
+     * Instances ordered by their id, starting right after the given id.
+     * 
+     * @param lastUserId
+     *            - id of the last Instance of the previous page, 0 for the
+     *            first page
+     * @param limit
+     *            - maximal number of Instances to be returned
+     * @param connection
+     *            - the database connection to perform the statement on
+     * @return a List of Instances
+     * @throws ApplicationException
+     */
+    protected static List<User> fetchAfter(int lastUserId, int limit, Connection connection)
+            throws ApplicationException {
+        List<User> result = null;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
+        query.append(" WHERE " + COL_USER_ID + " > ?");
+        query.append(" ORDER BY " + COL_USER_ID);
+        query.append(" LIMIT ?;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setInt(1, lastUserId);
+                statement.setInt(2, limit);
+
+                ResultSet resultSet = statement.executeQuery();
+                result = convertToInstances(resultSet);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a page of Instances ordered by their xp, highest first, starting
+     * right after the given Instance. Users with the same xp are ordered by
+     * their id, so the position is well defined and found by index.
+     * 
+     * @param last
+     *            - the last Instance of the previous page, null for the first
+     *            page
+     * @param limit
+     *            - maximal number of Instances to be returned
+     * @return a List of Instances
+     * @throws ApplicationException
+     */
+    public static List<User> fetchByXp(User last, int limit) throws ApplicationException {
+        List<User> result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = UserDatabaseAccess.fetchByXp(last, limit, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table to return a page of
+     * Instances ordered by their xp, starting right after the given Instance.
+     * 
+     * @param last
+     *            - the last Instance of the previous page, null for the first
+     *            page
+     * @param limit
+     *            - maximal number of Instances to be returned
+     * @param connection
+     *            - the database connection to perform the statement on
+     * @return a List of Instances
+     * @throws ApplicationException
+     */
+    protected static List<User> fetchByXp(User last, int limit, Connection connection)
+            throws ApplicationException {
+        return UserDatabaseAccess.fetchByXp(last, limit, MAPPER, connection);
+    }
+
+    private static List<User> fetchByXp(User last, int limit, RowMapper<User> mapper, Connection connection)
+            throws ApplicationException {
+        List<User> result = null;
+
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + mapper.columns() + " FROM " + TABLE);
+        query.append(" WHERE " + COL_XP + " IS NOT NULL");
+        if (last != null) {
+            query.append(" AND (" + COL_XP + ", " + COL_USER_ID + ") < (?, ?)");
+        }
+        query.append(" ORDER BY " + COL_XP + " DESC, " + COL_USER_ID + " DESC");
+        query.append(" LIMIT ?;");
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(query.toString());
+
+                int index = 1;
+                if (last != null) {
+                    statement.setInt(index++, last.getXp());
+                    statement.setInt(index++, last.getId());
+                }
+                statement.setInt(index, limit);
+
+                ResultSet resultSet = statement.executeQuery();
+                result = mapper.mapAll(resultSet);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Hands all Instances in storage, ordered by their id, to the given
+     * handler. The rows are read through a server side cursor in chunks, so
+     * the memory needed does not grow with the number of users.
+     * 
+     * @param handler
+     *            - receives the Instances one by one
+     * @throws ApplicationException
+     */
+    public static void stream(RowHandler<User> handler) throws ApplicationException {
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            UserDatabaseAccess.stream(handler, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table and hands all
+     * Instances to the given handler. The PostgreSQL driver only uses a cursor
+     * if a fetch size is set and the statement runs inside a transaction.
+     * 
+     * @param handler
+     *            - receives the Instances one by one
+     * @param connection
+     *            - the database connection to perform the statement on
+     * @throws ApplicationException
+     */
+    protected static void stream(RowHandler<User> handler, Connection connection) throws ApplicationException {
+        StringBuilder query = new StringBuilder("");
+        query.append("SELECT " + MAPPER.columns() + " FROM " + TABLE);
+        query.append(" ORDER BY " + COL_USER_ID + ";");
+
+        PreparedStatement statement = null;
+        try {
+            connection.setAutoCommit(false);
+            try {
+                statement = connection.prepareStatement(query.toString());
+                statement.setFetchSize(STREAM_FETCH_SIZE);
+
+                ResultSet resultSet = statement.executeQuery();
+                User entity = convertToInstance(resultSet);
+                while (entity != null && handler.handle(entity)) {
+                    entity = convertToInstance(resultSet);
+                }
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                // read only, nothing to commit
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to fetch", e);
+        }
+    }
+
     // *************************************************
     // GET
     // *************************************************
@@ -207,7 +515,7 @@ public class UserDatabaseAccess {
         User result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + UserDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
         sqlString += " WHERE " + UserDatabaseAccess.COL_USER_ID + " = ?";
 
         PreparedStatement statement = null;
@@ -229,6 +537,67 @@ public class UserDatabaseAccess {
         return result;
     }
 
+    /**
+     * Return the public part of an existing Instance from storage, based on its
+     * id. Email and credentials are not loaded, so the result must not be
+     * passed to {@link #update(User)}.
+     * 
+     * @param userId
+     *            - the ID of the Instance to load
+     * @return the found Instance, otherwise null
+     * @throws ApplicationException
+     */
+    public static User getSummaryById(int userId) throws ApplicationException {
+        User result = null;
+
+        Connection connection = null;
+        try {
+            connection = ConnectionPool.getConnection();
+            result = UserDatabaseAccess.getSummaryById(userId, connection);
+        } finally {
+            ConnectionPool.releaseConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs a 'SELECT' statement on the database table to return the public
+     * part of an existing Instance from storage, based on its id.
+     * 
+     * @param userId
+     *            - the ID of the Instance to load
+     * @param connection
+     *            - the database connection to perform the statement on
+     * @return the found Instance, otherwise null
+     * @throws ApplicationException
+     */
+    protected static User getSummaryById(int userId, Connection connection) throws ApplicationException {
+        User result = null;
+
+        String sqlString = "";
+        sqlString += "SELECT " + SUMMARY_MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
+        sqlString += " WHERE " + UserDatabaseAccess.COL_USER_ID + " = ?";
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement(sqlString);
+                statement.setInt(1, userId);
+                ResultSet resultSet = statement.executeQuery();
+                result = SUMMARY_MAPPER.mapOne(resultSet);
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new ApplicationException("Failed to select", e);
+        }
+
+        return result;
+    }
+
     /**
      * Return existing Instances from storage, based on the user's login data.
      * 
@@ -267,7 +636,7 @@ public class UserDatabaseAccess {
         User result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + UserDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
         sqlString += " WHERE " + UserDatabaseAccess.COL_EMAIL + " = ?";
         sqlString += " AND " + UserDatabaseAccess.COL_PASSWORD_HASH + " = ?";
 
@@ -330,7 +699,7 @@ public class UserDatabaseAccess {
         User result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + UserDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
         sqlString += " WHERE " + UserDatabaseAccess.COL_EMAIL + " = ?";
 
         PreparedStatement statement = null;
@@ -390,7 +759,7 @@ public class UserDatabaseAccess {
         User result = null;
 
         String sqlString = "";
-        sqlString += "SELECT * FROM " + UserDatabaseAccess.TABLE;
+        sqlString += "SELECT " + MAPPER.columns() + " FROM " + UserDatabaseAccess.TABLE;
         sqlString += " WHERE " + UserDatabaseAccess.COL_NICKNAME + " = ?";
 
         PreparedStatement statement = null;
@@ -436,7 +805,7 @@ public class UserDatabaseAccess {
     /**
      * Performs a 'SELECT' statement on the database table to return a existing
      * Instance from
-     * storage, based on its xp.
+     * storage, based on its xp. Email and credentials are not loaded.
      * 
      * @param connection
      *            the database connection to perform the statement on
@@ -445,35 +814,8 @@ public class UserDatabaseAccess {
      */
     protected static List<User> getBestPlayers(Connection connection)
             throws ApplicationException {
-        // LOGGER.fine("SELECT on table " + RoundDatabaseAccess.DB_TABLE);
-
-        List<User> result = new LinkedList<User>();
-
-        StringBuilder query = new StringBuilder("");
-        query.append("SELECT * FROM " + TABLE);
-        query.append(" ORDER BY " + COL_XP + " DESC");
-        query.append(" LIMIT 10");
-        query.append(";");
-
-        PreparedStatement statement = null;
-        try {
-            try {
-                // set parameters and execute query
-                statement = connection.prepareStatement(query.toString());
-
-                ResultSet resultSet = statement.executeQuery();
-                result = convertToInstances(resultSet);
-
-            } finally {
-                if (statement != null) {
-                    statement.close();
-                }
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to fetch", e);
-        }
-
-        return result;
+        // first page of the xp ordering, the public part is sufficient
+        return UserDatabaseAccess.fetchByXp(null, 10, SUMMARY_MAPPER, connection);
     }
 
     /**
@@ -637,7 +979,7 @@ public class UserDatabaseAccess {
         query.append(UserDatabaseAccess.COL_XP);
         query.append(", ");
         query.append(UserDatabaseAccess.COL_LEVEL);
-        query.append(") VALUES (?, ?, ?, ?, ?, ?) RETURNING *;");
+        query.append(") VALUES (?, ?, ?, ?, ?, ?) RETURNING " + MAPPER.columns() + ";");
 
         PreparedStatement statement = null;
         try {
@@ -737,6 +1079,8 @@ public class UserDatabaseAccess {
                 int resultRows = statement.executeUpdate();
                 result = resultRows > 0;
             } finally {
+                bumpVersion(entity.getId());
+                InvalidationBus.publish(connection, Entity.USER, entity.getId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -786,11 +1130,12 @@ public class UserDatabaseAccess {
 
         StringBuilder sqlQuery = new StringBuilder("UPDATE ");
         sqlQuery.append(TABLE);
+        sqlQuery.append(" SET " + COL_IS_ACTIVE);
+        sqlQuery.append(" = false");
         sqlQuery.append(" WHERE ");
         sqlQuery.append(COL_USER_ID);
-        sqlQuery.append(" = ? SET" + COL_IS_ACTIVE);
-        sqlQuery.append(" = false;");
-        
+        sqlQuery.append(" = ?;");
+
         PreparedStatement statement = null;
         try {
             try {
@@ -801,6 +1146,8 @@ public class UserDatabaseAccess {
 
                 return resultRows > 0;
             } finally {
+                bumpVersion(entity.getId());
+                InvalidationBus.publish(connection, Entity.USER, entity.getId());
                 if (statement != null) {
                     statement.close();
                 }
@@ -824,26 +1171,7 @@ public class UserDatabaseAccess {
      * @throws ApplicationException
      */
     protected static User convertToInstance(ResultSet resultSet) throws ApplicationException {
-        User entity = null;
-
-        try {
-            if (resultSet.next()) {
-                entity = new User();
-                entity.setId(resultSet.getInt(COL_USER_ID));
-                entity.setEmail(resultSet.getString(COL_EMAIL));
-                entity.setHashedPassword(resultSet.getString(COL_PASSWORD_HASH));
-                entity.setAdmin(resultSet.getBoolean(COL_IS_ADMIN));
-                entity.setNickname(resultSet.getString(COL_NICKNAME));
-                entity.setXp(resultSet.getInt(COL_XP));
-                entity.setLevel(UserLevel.valueOfString(resultSet.getString(COL_LEVEL)));
-                entity.setRegistered(resultSet.getTimestamp(COL_REGISTERED));
-                entity.setActive(resultSet.getBoolean(COL_IS_ACTIVE));
-            }
-        } catch (SQLException e) {
-            throw new ApplicationException("Failed to convert resultSet to entity.");
-        }
-
-        return entity;
+        return MAPPER.mapOne(resultSet);
     }
 
     /**
@@ -856,16 +1184,7 @@ public class UserDatabaseAccess {
      * @throws ApplicationException
      */
     protected static List<User> convertToInstances(ResultSet resultSet) throws ApplicationException {
-        List<User> entities = new LinkedList<User>();
-
-        User entity = UserDatabaseAccess.convertToInstance(resultSet);
-
-        while (entity != null) {
-            entities.add(entity);
-            entity = UserDatabaseAccess.convertToInstance(resultSet);
-        }
-
-        return entities;
+        return MAPPER.mapAll(resultSet);
     }
 
 }
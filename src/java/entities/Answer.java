@@ -12,6 +12,9 @@ public class Answer {
 
     private String answerUrl;
 
+    // the Europeana record the url refers to, see RecordIds
+    private String recordId;
+
     public Answer() {
     }
 
@@ -26,7 +29,7 @@ public class Answer {
     }
 
     /**
-     * Constructor with all parameters.
+     * Constructor with url.
      * 
      */
     public Answer(int id, String url) {
@@ -34,6 +37,16 @@ public class Answer {
         this.answerUrl = url;
     }
 
+    /**
+     * Constructor with all parameters.
+     * 
+     */
+    public Answer(int id, String url, String recordId) {
+        this.questionId = id;
+        this.answerUrl = url;
+        this.recordId = recordId;
+    }
+
     public int getQuestionId() {
         return questionId;
     }
@@ -50,6 +63,14 @@ public class Answer {
         this.answerUrl = answerUrl;
     }
 
+    public String getRecordId() {
+        return recordId;
+    }
+
+    public void setRecordId(String recordId) {
+        this.recordId = recordId;
+    }
+
     // *************************************************
     // HELPER METHODES
     // *************************************************
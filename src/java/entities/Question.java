@@ -1,7 +1,9 @@
 package cgwap.entities;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 public class Question {
     /**
@@ -22,6 +24,10 @@ public class Question {
     private boolean has_follow_up_question;
     private int previous_question_id;
 
+    // only set if loaded together with the question, otherwise null
+    private List<Answer> answers;
+    private List<QuestionTag> tags;
+
     public Question() {
     }
 
@@ -29,6 +35,21 @@ public class Question {
         this.id = questionId;
     }
 
+    /**
+     * Copy constructor. The lists of answers and tags are copied, their
+     * elements are shared.
+     * 
+     */
+    public Question(Question other) {
+        this(other.id, other.userId, other.questionText, other.timestamp == null ? null : (Date) other.timestamp
+                .clone(), other.skipped, 0, other.reported, other.has_follow_up_question,
+                other.previous_question_id);
+        this.difficultyRating = other.difficultyRating;
+        this.ratingCounter = other.ratingCounter;
+        this.answers = other.answers == null ? null : new ArrayList<Answer>(other.answers);
+        this.tags = other.tags == null ? null : new ArrayList<QuestionTag>(other.tags);
+    }
+
     public Question(int id, int userId, String questionText, Date timestamp, int skipped, int rating, int reported,
             boolean is_follow_up_question, int previous_question_id) {
         this.id = id;
@@ -126,6 +147,22 @@ public class Question {
         this.ratingCounter = ratingCounter;
     }
 
+    public List<Answer> getAnswers() {
+        return answers;
+    }
+
+    public void setAnswers(List<Answer> answers) {
+        this.answers = answers;
+    }
+
+    public List<QuestionTag> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<QuestionTag> tags) {
+        this.tags = tags;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -0,0 +1,70 @@
+package cgwap.entities;
+
+/**
+ * Data Transfer Object holding what is known about how a question is played:
+ * its difficulty rating, how often it was skipped and how many of its
+ * finished rounds were passed.
+ */
+public class QuestionStatistics {
+
+    private int questionId;
+
+    private float difficultyRating;
+
+    private int skipped;
+
+    private int rounds;
+
+    private int passed;
+
+    public QuestionStatistics() {
+    }
+
+    public QuestionStatistics(int questionId, float difficultyRating, int skipped, int rounds, int passed) {
+        this.questionId = questionId;
+        this.difficultyRating = difficultyRating;
+        this.skipped = skipped;
+        this.rounds = rounds;
+        this.passed = passed;
+    }
+
+    public int getQuestionId() {
+        return questionId;
+    }
+
+    public void setQuestionId(int questionId) {
+        this.questionId = questionId;
+    }
+
+    public float getDifficultyRating() {
+        return difficultyRating;
+    }
+
+    public void setDifficultyRating(float difficultyRating) {
+        this.difficultyRating = difficultyRating;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public void setRounds(int rounds) {
+        this.rounds = rounds;
+    }
+
+    public int getPassed() {
+        return passed;
+    }
+
+    public void setPassed(int passed) {
+        this.passed = passed;
+    }
+}
@@ -5,6 +5,8 @@ public class QuestionTag implements Comparable<QuestionTag> {
 
     private int questionId;
 
+    private int tagId;
+
     private String tag;
 
     public QuestionTag() {
@@ -15,6 +17,12 @@ public class QuestionTag implements Comparable<QuestionTag> {
         this.tag = tag;
     }
     
+    public QuestionTag(int questionId, int tagId, String tag) {
+        this.questionId = questionId;
+        this.tagId = tagId;
+        this.tag = tag;
+    }
+
     public QuestionTag(String tag) {
         this.tag = tag;
     }
@@ -27,6 +35,14 @@ public class QuestionTag implements Comparable<QuestionTag> {
         this.questionId = question_id;
     }
 
+    public int getTagId() {
+        return tagId;
+    }
+
+    public void setTagId(int tagId) {
+        this.tagId = tagId;
+    }
+
     public String getTag() {
         return tag;
     }
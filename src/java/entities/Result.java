@@ -1,5 +1,10 @@
 package cgwap.entities;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import cgwap.util.file_loader.PreviewLoaderServlet;
+
 public class Result {
 
     /**
@@ -41,6 +46,23 @@ public class Result {
         this.preview = preview;
     }
 
+    /**
+     * Returns the path of the preview delivered through our server, relative
+     * to the context root.
+     * 
+     * @return the path, empty if there is no preview
+     */
+    public String getProxiedPreview() {
+        if (preview == null || preview.isEmpty()) {
+            return "";
+        }
+        try {
+            return PreviewLoaderServlet.PATH + "?url=" + URLEncoder.encode(preview, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return preview;
+        }
+    }
+
     public String getDescription() {
         return description;
     }
@@ -78,6 +78,26 @@ public class Config {
      */
     public static String IMAGE_STORING_LOCATION;
 
+    /**
+     * Maximal width and height of preview thumbnails in pixels.
+     */
+    public static int PREVIEW_SIZE = 200;
+
+    /**
+     * Maximal size of all stored preview thumbnails in bytes.
+     */
+    public static long PREVIEW_CACHE_SIZE = 100L * 1024 * 1024;
+
+    /**
+     * Seconds browsers may cache preview thumbnails without revalidating.
+     */
+    public static int PREVIEW_MAX_AGE = 86400;
+
+    /**
+     * Hosts, including their subdomains, whose preview images are delivered.
+     */
+    public static String[] PREVIEW_HOSTS = { "europeana.eu", "europeanastatic.eu" };
+
     /**
      * Locations where to store css files.
      */
@@ -118,6 +138,11 @@ public class Config {
      */
     public static String REQUEST_ROWS;
 
+    /**
+     * The parameter selecting the first result of a page.
+     */
+    public static String REQUEST_START = "&start=";
+
     /**
      * The keywords the API Action should search for.
      */
@@ -144,6 +169,154 @@ public class Config {
     public static String TYPE_SOUND;
     
     public static String RESPONSE_ITEMS;
+
+    /**
+     * Milliseconds to wait for the connection to the API to be established.
+     */
+    public static int REQUEST_CONNECT_TIMEOUT = 2000;
+
+    /**
+     * Milliseconds to wait for the next data of the API's response.
+     */
+    public static int REQUEST_READ_TIMEOUT = 4000;
+
+    /**
+     * Milliseconds a complete API request may take, from connecting until the
+     * response was read.
+     */
+    public static int REQUEST_DEADLINE = 6000;
+
+    /**
+     * Maximal number of concurrent API requests. The same number of idle
+     * connections is kept alive for reuse.
+     */
+    public static int REQUEST_MAX_CONNECTIONS = 10;
+
+    /**
+     * API requests per second of all users together.
+     */
+    public static double REQUEST_RATE = 10;
+
+    /**
+     * API requests of all users which may be sent at once.
+     */
+    public static int REQUEST_BURST = 20;
+
+    /**
+     * API requests per second of a single user.
+     */
+    public static double REQUEST_USER_RATE = 0.5;
+
+    /**
+     * API requests of a single user which may be sent at once.
+     */
+    public static int REQUEST_USER_BURST = 5;
+
+    /**
+     * Milliseconds a user's request may wait when the request quota is
+     * exhausted.
+     */
+    public static int REQUEST_QUEUE_TIMEOUT = 2000;
+
+    /**
+     * Maximal number of searches whose results are cached.
+     */
+    public static int SEARCH_CACHE_SIZE = 1000;
+
+    /**
+     * Seconds after which cached results are reloaded in the background.
+     */
+    public static int SEARCH_CACHE_REFRESH = 600;
+
+    /**
+     * Seconds after which cached results are removed.
+     */
+    public static int SEARCH_CACHE_EXPIRE = 3600;
+
+    /**
+     * Number of searches running in the background at the same time.
+     */
+    public static int SEARCH_THREADS = 10;
+
+    /**
+     * Maximal number of background searches waiting for a thread.
+     */
+    public static int SEARCH_QUEUE_SIZE = 100;
+
+    /**
+     * Maximal number of result pages a player's view keeps, including the
+     * prefetched next page.
+     */
+    public static int SEARCH_PAGES_KEPT = 5;
+
+    /**
+     * Directory of the local search index, by default below the
+     * IMAGE_STORING_LOCATION.
+     */
+    public static String SEARCH_INDEX_LOCATION;
+
+    /**
+     * Directory of the cache snapshot written at shutdown, by default below
+     * the IMAGE_STORING_LOCATION.
+     */
+    public static String SNAPSHOT_LOCATION;
+
+    /**
+     * Number of records after which the local search index writes a segment.
+     */
+    public static int SEARCH_INDEX_FLUSH_SIZE = 500;
+
+    /**
+     * Number of segment files after which the local search index merges them.
+     */
+    public static int SEARCH_INDEX_MAX_SEGMENTS = 8;
+
+    /**
+     * Maximal number of questions kept in memory, 0 disables the cache.
+     */
+    public static int QUESTION_CACHE_SIZE = 1000;
+
+    /**
+     * Seconds after which a cached question is read again.
+     */
+    public static int QUESTION_CACHE_EXPIRE = 300;
+
+    /**
+     * Milliseconds the principal of a logged in user is trusted before the
+     * user is read again.
+     */
+    public static int PRINCIPAL_TTL = 60000;
+
+    /**
+     * Seconds after which the tags offered for selection and autocompletion
+     * are read again, even if no tag was changed.
+     */
+    public static int TAG_CATALOG_REFRESH = 600;
+
+    /**
+     * Number of questions left in a player's queue at which it is read again
+     * in the background.
+     */
+    public static int QUESTION_QUEUE_LOW = 5;
+
+    /**
+     * Maximal number of players whose played questions are kept in the
+     * question catalog.
+     */
+    public static int QUESTION_CATALOG_PLAYERS = 1000;
+
+    /**
+     * Seconds between the rebuilds of the weights random questions are drawn
+     * by, if the statistics of the questions have changed.
+     */
+    public static int QUESTION_WEIGHTS_REBUILD = 30;
+
+    /**
+     * Milliseconds between the checks for changes made by other servers, 0 if
+     * this is the only server. Off by default, set it on every server sharing
+     * the database.
+     */
+    public static int INVALIDATION_POLL = 0;
     
     /**
      * The default tag which is used when all other question tags are deleted.
@@ -232,6 +405,7 @@ public class Config {
             API_ACTION = prop.getProperty("API_ACTION");
             REQUEST_ROWS = prop.getProperty("REQUEST_ROWS");
             REQUEST_QUERY = prop.getProperty("REQUEST_QUERY");
+            REQUEST_START = prop.getProperty("REQUEST_START", REQUEST_START);
             REQUEST_PROFILE = prop.getProperty("REQUEST_PROFILE");
             PROFILE_PARAMS = prop.getProperty("REQUEST_PARAMS");
             PROFILE_STANDARD = prop.getProperty("REQUEST_STANDARD");
@@ -245,6 +419,31 @@ public class Config {
             TYPE_VIDEO = prop.getProperty("TYPE_VIDEO");
             TYPE_SOUND = prop.getProperty("TYPE_SOUND");
             RESPONSE_ITEMS = prop.getProperty("RESPONSE_ITEMS");
+            REQUEST_CONNECT_TIMEOUT = getInt(prop, "REQUEST_CONNECT_TIMEOUT", REQUEST_CONNECT_TIMEOUT);
+            REQUEST_READ_TIMEOUT = getInt(prop, "REQUEST_READ_TIMEOUT", REQUEST_READ_TIMEOUT);
+            REQUEST_DEADLINE = getInt(prop, "REQUEST_DEADLINE", REQUEST_DEADLINE);
+            REQUEST_MAX_CONNECTIONS = getInt(prop, "REQUEST_MAX_CONNECTIONS", REQUEST_MAX_CONNECTIONS);
+            REQUEST_RATE = getDouble(prop, "REQUEST_RATE", REQUEST_RATE);
+            REQUEST_BURST = getInt(prop, "REQUEST_BURST", REQUEST_BURST);
+            REQUEST_USER_RATE = getDouble(prop, "REQUEST_USER_RATE", REQUEST_USER_RATE);
+            REQUEST_USER_BURST = getInt(prop, "REQUEST_USER_BURST", REQUEST_USER_BURST);
+            REQUEST_QUEUE_TIMEOUT = getInt(prop, "REQUEST_QUEUE_TIMEOUT", REQUEST_QUEUE_TIMEOUT);
+            SEARCH_CACHE_SIZE = getInt(prop, "SEARCH_CACHE_SIZE", SEARCH_CACHE_SIZE);
+            SEARCH_CACHE_REFRESH = getInt(prop, "SEARCH_CACHE_REFRESH", SEARCH_CACHE_REFRESH);
+            SEARCH_CACHE_EXPIRE = getInt(prop, "SEARCH_CACHE_EXPIRE", SEARCH_CACHE_EXPIRE);
+            SEARCH_THREADS = getInt(prop, "SEARCH_THREADS", SEARCH_THREADS);
+            SEARCH_QUEUE_SIZE = getInt(prop, "SEARCH_QUEUE_SIZE", SEARCH_QUEUE_SIZE);
+            SEARCH_PAGES_KEPT = getInt(prop, "SEARCH_PAGES_KEPT", SEARCH_PAGES_KEPT);
+            SEARCH_INDEX_FLUSH_SIZE = getInt(prop, "SEARCH_INDEX_FLUSH_SIZE", SEARCH_INDEX_FLUSH_SIZE);
+            SEARCH_INDEX_MAX_SEGMENTS = getInt(prop, "SEARCH_INDEX_MAX_SEGMENTS", SEARCH_INDEX_MAX_SEGMENTS);
+            QUESTION_CACHE_SIZE = getInt(prop, "QUESTION_CACHE_SIZE", QUESTION_CACHE_SIZE);
+            QUESTION_CACHE_EXPIRE = getInt(prop, "QUESTION_CACHE_EXPIRE", QUESTION_CACHE_EXPIRE);
+            PRINCIPAL_TTL = getInt(prop, "PRINCIPAL_TTL", PRINCIPAL_TTL);
+            TAG_CATALOG_REFRESH = getInt(prop, "TAG_CATALOG_REFRESH", TAG_CATALOG_REFRESH);
+            QUESTION_QUEUE_LOW = getInt(prop, "QUESTION_QUEUE_LOW", QUESTION_QUEUE_LOW);
+            QUESTION_CATALOG_PLAYERS = getInt(prop, "QUESTION_CATALOG_PLAYERS", QUESTION_CATALOG_PLAYERS);
+            QUESTION_WEIGHTS_REBUILD = getInt(prop, "QUESTION_WEIGHTS_REBUILD", QUESTION_WEIGHTS_REBUILD);
+            INVALIDATION_POLL = getInt(prop, "INVALIDATION_POLL", INVALIDATION_POLL);
             ITEM_PREVIEW = prop.getProperty("ITEM_PREVIEW");
             ITEM_TITLE = prop.getProperty("ITEM_TITLE");
             ITEM_DESCRIPTION = prop.getProperty("ITEM_DESCRIPTION");
@@ -259,6 +458,17 @@ public class Config {
             if (!new File(IMAGE_STORING_LOCATION).exists()) {
                 IMAGE_STORING_LOCATION = System.getProperty("java.io.tmpdir");
             }
+            SEARCH_INDEX_LOCATION = prop.getProperty("SEARCH_INDEX_LOCATION",
+                    new File(IMAGE_STORING_LOCATION, "index").getPath());
+            SNAPSHOT_LOCATION = prop.getProperty("SNAPSHOT_LOCATION",
+                    new File(IMAGE_STORING_LOCATION, "snapshot").getPath());
+            PREVIEW_SIZE = getInt(prop, "PREVIEW_SIZE", PREVIEW_SIZE);
+            PREVIEW_CACHE_SIZE = getInt(prop, "PREVIEW_CACHE_SIZE_MB", (int) (PREVIEW_CACHE_SIZE / 1024 / 1024))
+                    * 1024L * 1024;
+            PREVIEW_MAX_AGE = getInt(prop, "PREVIEW_MAX_AGE", PREVIEW_MAX_AGE);
+            if (prop.getProperty("PREVIEW_HOSTS") != null) {
+                PREVIEW_HOSTS = prop.getProperty("PREVIEW_HOSTS").trim().toLowerCase().split("\\s*,\\s*");
+            }
             CSS_STORING_LOCATION = prop.getProperty("CSS_STORING_LOCATION");
             if (!new File(CSS_STORING_LOCATION).exists()) {
                 CSS_STORING_LOCATION = System.getProperty("java.io.tmpdir");
@@ -280,4 +490,42 @@ public class Config {
         }
 
     }
+
+    /**
+     * Reads an optional integer parameter.
+     * 
+     * @param prop
+     *            the loaded properties
+     * @param key
+     *            the parameter's name
+     * @param defaultValue
+     *            the value used when the parameter is missing
+     * @return the parameter's value
+     */
+    private static int getInt(Properties prop, String key, int defaultValue) {
+        String value = prop.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.valueOf(value.trim());
+    }
+
+    /**
+     * Reads an optional decimal parameter.
+     * 
+     * @param prop
+     *            the loaded properties
+     * @param key
+     *            the parameter's name
+     * @param defaultValue
+     *            the value used when the parameter is missing
+     * @return the parameter's value
+     */
+    private static double getDouble(Properties prop, String key, double defaultValue) {
+        String value = prop.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Double.valueOf(value.trim());
+    }
 }
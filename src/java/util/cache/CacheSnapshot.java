@@ -0,0 +1,412 @@
+package cgwap.util.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import cgwap.util.Config;
+
+/**
+ * A snapshot of the contents of the caches, written at shutdown and read at
+ * the next startup, so the caches need not fill up from cold after a deploy.
+ *
+ * The snapshot is one file with a section per cache. The file is mapped into
+ * memory at startup, but only its header and index are read; a section is
+ * checked and decoded when its cache asks for it. A file of another version
+ * or with a wrong index checksum is ignored as a whole; a section is ignored,
+ * if it has been written by another version of its cache, if its checksum is
+ * wrong or if the snapshot is older than the cache keeps its entries.
+ *
+ * <pre>
+ * header    MAGIC VERSION created:long sectionCount:int indexChecksum:long
+ * index     (version:int offset:int length:int checksum:long name) * sectionCount
+ * section   the entries as written by the cache
+ * </pre>
+ *
+ * Strings are stored as their length in bytes followed by their UTF-8 bytes; a
+ * length of -1 stands for null. The checksums are CRC32 checksums.
+ *
+ */
+public final class CacheSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(CacheSnapshot.class.getName());
+
+    private static final int MAGIC = 0x43475743;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+
+    /**
+     * Name of the snapshot file in the SNAPSHOT_LOCATION.
+     */
+    private static final String FILE_NAME = "caches.snapshot";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static CacheSnapshot instance;
+
+    private final long created;
+
+    // the sections not yet taken by their caches
+    private final Map<String, Section> sections;
+
+    private ByteBuffer buffer;
+
+    private CacheSnapshot(long created, Map<String, Section> sections, ByteBuffer buffer) {
+        this.created = created;
+        this.sections = sections;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps the snapshot written at the last shutdown, if there is a valid one.
+     */
+    public static synchronized void startup() {
+        File file = getFile();
+        instance = new CacheSnapshot(0, new HashMap<String, Section>(), null);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            instance = map(file);
+            LOGGER.info("Mapped the cache snapshot " + file + " with " + instance.sections.size() + " sections.");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Ignored the cache snapshot " + file, e);
+        }
+    }
+
+    /**
+     * Drops the sections not taken by their caches.
+     */
+    public static synchronized void shutdown() {
+        instance = null;
+    }
+
+    /**
+     * Returns the snapshot mapped at startup.
+     *
+     * @return the snapshot, without sections if there was none
+     */
+    public static synchronized CacheSnapshot getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Takes the section of a cache out of the snapshot, every section is
+     * handed out once only.
+     *
+     * @param name
+     *            the name of the cache's section
+     * @param version
+     *            the version of the cache's encoding
+     * @param maxAgeSeconds
+     *            seconds the cache keeps its entries, older snapshots are
+     *            stale
+     * @return the section, null if there is no valid one
+     */
+    public synchronized Input take(String name, int version, int maxAgeSeconds) {
+        Section section = sections.remove(name);
+        if (section == null) {
+            return null;
+        }
+
+        ByteBuffer bytes = buffer.duplicate();
+        if (sections.isEmpty()) {
+            // the sections handed out keep the mapping alive as long as needed
+            buffer = null;
+        }
+
+        if (section.version != version) {
+            LOGGER.info("Ignored the section " + name + " of the cache snapshot, written by version "
+                    + section.version);
+            return null;
+        }
+        long age = System.currentTimeMillis() - created;
+        if (age < 0 || age > maxAgeSeconds * 1000L) {
+            LOGGER.info("Ignored the section " + name + " of the cache snapshot, written " + age / 1000
+                    + " seconds ago.");
+            return null;
+        }
+
+        bytes.limit(section.offset + section.length);
+        bytes.position(section.offset);
+        ByteBuffer content = bytes.slice();
+        if (checksum(content.duplicate()) != section.checksum) {
+            LOGGER.warning("Ignored the section " + name + " of the cache snapshot, its checksum is wrong.");
+            return null;
+        }
+        return new Input(content);
+    }
+
+    private static File getFile() {
+        return new File(Config.SNAPSHOT_LOCATION, FILE_NAME);
+    }
+
+    private static CacheSnapshot map(File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the file is closed
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is no cache snapshot.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+        }
+        long created = buffer.getLong(8);
+        int sectionCount = buffer.getInt(16);
+        long indexChecksum = buffer.getLong(20);
+
+        Map<String, Section> sections = new HashMap<String, Section>();
+        ByteBuffer index = buffer.duplicate();
+        index.position(HEADER_SIZE);
+        Input input = new Input(index);
+        for (int i = 0; i < sectionCount; i++) {
+            Section section = new Section(input.readInt(), input.readInt(), input.readInt(), input.readLong());
+            String name = input.readString();
+            if (section.offset < 0 || section.length < 0 || section.offset > buffer.capacity() - section.length) {
+                throw new IOException(file + " is truncated.");
+            }
+            sections.put(name, section);
+        }
+
+        ByteBuffer indexBytes = buffer.duplicate();
+        indexBytes.limit(index.position());
+        indexBytes.position(HEADER_SIZE);
+        if (checksum(indexBytes) != indexChecksum) {
+            throw new IOException(file + " has a wrong checksum.");
+        }
+
+        return new CacheSnapshot(created, sections, buffer);
+    }
+
+    private static long checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (bytes.hasRemaining()) {
+            int length = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Collects the sections of the caches and writes them as the snapshot.
+     */
+    public static final class Writer {
+
+        private final Map<String, Output> sections = new LinkedHashMap<String, Output>();
+        private final Map<String, Integer> versions = new HashMap<String, Integer>();
+
+        /**
+         * Starts the section of a cache.
+         *
+         * @param name
+         *            the name of the cache's section
+         * @param version
+         *            the version of the cache's encoding
+         * @return the output to write the cache's entries to
+         */
+        public Output section(String name, int version) {
+            Output output = new Output();
+            sections.put(name, output);
+            versions.put(name, version);
+            return output;
+        }
+
+        /**
+         * Writes the snapshot, replacing the previous one. The file is written
+         * under a temporary name and moved when complete, so a crash never
+         * leaves a partial snapshot. Without sections, e.g. on a second
+         * shutdown, the previous snapshot is kept.
+         *
+         * @throws IOException
+         */
+        public void write() throws IOException {
+            if (sections.isEmpty()) {
+                return;
+            }
+            File file = getFile();
+            file.getParentFile().mkdirs();
+
+            int offset = HEADER_SIZE;
+            for (String name : sections.keySet()) {
+                offset += 24 + name.getBytes(UTF_8).length;
+            }
+
+            Output index = new Output();
+            for (Map.Entry<String, Output> section : sections.entrySet()) {
+                byte[] content = section.getValue().bytes.toByteArray();
+                index.writeInt(versions.get(section.getKey()));
+                index.writeInt(offset);
+                index.writeInt(content.length);
+                index.writeLong(checksum(content));
+                index.writeString(section.getKey());
+                offset += content.length;
+            }
+            byte[] indexBytes = index.bytes.toByteArray();
+
+            File temporary = File.createTempFile("caches", ".tmp", file.getParentFile());
+            try {
+                try (OutputStream stream = new FileOutputStream(temporary)) {
+                    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeLong(System.currentTimeMillis());
+                    output.writeInt(sections.size());
+                    output.writeLong(checksum(indexBytes));
+                    output.write(indexBytes);
+                    for (Output section : sections.values()) {
+                        section.bytes.writeTo(output);
+                    }
+                    output.flush();
+                }
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary.toPath());
+            }
+            LOGGER.info("Wrote the cache snapshot " + file + " with " + sections.size() + " sections.");
+        }
+    }
+
+    /**
+     * The section of a cache being written.
+     */
+    public static final class Output {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        private Output() {
+        }
+
+        public void writeInt(int value) throws IOException {
+            output.writeInt(value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            output.writeLong(value);
+        }
+
+        public void writeFloat(float value) throws IOException {
+            output.writeFloat(value);
+        }
+
+        public void writeBoolean(boolean value) throws IOException {
+            output.writeBoolean(value);
+        }
+
+        public void writeString(String value) throws IOException {
+            if (value == null) {
+                output.writeInt(-1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(UTF_8);
+            output.writeInt(utf8.length);
+            output.write(utf8);
+        }
+    }
+
+    /**
+     * The section of a cache being read, straight from the mapped file.
+     */
+    public static final class Input {
+
+        private final ByteBuffer buffer;
+
+        private Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int readInt() throws IOException {
+            try {
+                return buffer.getInt();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Unexpected end of the cache snapshot.", e);
+            }
+        }
+
+        public long readLong() throws IOException {
+            try {
+                return buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Unexpected end of the cache snapshot.", e);
+            }
+        }
+
+        public float readFloat() throws IOException {
+            try {
+                return buffer.getFloat();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Unexpected end of the cache snapshot.", e);
+            }
+        }
+
+        public boolean readBoolean() throws IOException {
+            try {
+                return buffer.get() != 0;
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Unexpected end of the cache snapshot.", e);
+            }
+        }
+
+        public String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > buffer.remaining()) {
+                throw new IOException("Unexpected end of the cache snapshot.");
+            }
+            byte[] utf8 = new byte[length];
+            buffer.get(utf8);
+            return new String(utf8, UTF_8);
+        }
+    }
+
+    /**
+     * The position of a section in the file.
+     */
+    private static final class Section {
+
+        final int version;
+        final int offset;
+        final int length;
+        final long checksum;
+
+        Section(int version, int offset, int length, long checksum) {
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+}
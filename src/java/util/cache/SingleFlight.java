@@ -0,0 +1,85 @@
+package cgwap.util.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls with the same key: while a call is running, all
+ * further calls with its key wait for it and share its result instead of
+ * running again. If the call fails, all of them get its exception.
+ * 
+ * Results are not kept once the call has finished, caching them is up to the
+ * caller.
+ * 
+ * @param <K>
+ *            the type of the keys identifying equal calls
+ * @param <V>
+ *            the type of the results
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    /**
+     * Runs a call, or waits for the running call with the same key.
+     * 
+     * @param key
+     *            identifies the call
+     * @param callable
+     *            the call, only run if no call with the key is running
+     * @return the result of the call
+     * @throws ExecutionException
+     *             Thrown when the call failed, its exception is the cause.
+     * @throws InterruptedException
+     *             Thrown when the thread was interrupted while waiting.
+     */
+    public V execute(K key, Callable<V> callable) throws ExecutionException, InterruptedException {
+        FutureTask<V> task = new FutureTask<V>(callable);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+
+        if (running == null) {
+            executed.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        } else {
+            shared.incrementAndGet();
+        }
+
+        return running.get();
+    }
+
+    /**
+     * Returns the number of calls that were actually run.
+     * 
+     * @return the number of calls
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * Returns the number of calls that were saved by waiting for a running
+     * one.
+     * 
+     * @return the number of saved calls
+     */
+    public long getShared() {
+        return shared.get();
+    }
+
+    @Override
+    public String toString() {
+        return "executed=" + getExecuted() + ", saved=" + getShared();
+    }
+}
@@ -82,6 +82,16 @@ public class ConnectionProducer implements Runnable {
     }
 
     private Connection produce() throws ApplicationException {
+        return open();
+    }
+
+    /**
+     * Opens a new connection to the configured database.
+     * 
+     * @return the connection
+     * @throws ApplicationException
+     */
+    static Connection open() throws ApplicationException {
         LOGGER.fine("Try to open Database Connection.");
         Connection connection = null;
 
@@ -0,0 +1,288 @@
+package cgwap.util.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import cgwap.util.Config;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Tells the other servers sharing the database which entities have been
+ * changed, so they can evict them from their caches. A change is published
+ * by a NOTIFY on the connection of the write; every server listens on a
+ * connection of its own, outside the ConnectionPool, and hands the changes of
+ * the other servers to its listeners.
+ * 
+ * Notifications sent while the listening connection was lost cannot be
+ * recovered, hence the listeners are told to evict everything after a
+ * reconnect.
+ * 
+ */
+public class InvalidationBus implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(InvalidationBus.class.getName());
+
+    /**
+     * The channel the changes are published on.
+     */
+    private static final String CHANNEL = "cgwap_invalidation";
+
+    /**
+     * Milliseconds to wait before connecting again after a failure.
+     */
+    private static final int RETRY_DELAY = 5000;
+
+    /**
+     * The kinds of changed entities. The id published with a change is the
+     * one of the question, except for rounds and users, where it is the one of
+     * the user.
+     */
+    public enum Entity {
+        QUESTION,
+
+        /**
+         * The skips or the rating of a question.
+         */
+        QUESTION_STATISTICS,
+
+        ANSWER, TAG, ROUND, USER,
+
+        /**
+         * Everything may have changed; no id is given.
+         */
+        ALL
+    }
+
+    /**
+     * Receives the changes made by other servers.
+     */
+    public interface Listener {
+
+        /**
+         * Handles a change.
+         * 
+         * @param entity
+         *            - the kind of the changed entity
+         * @param id
+         *            - the id of the changed entity, 0 for {@link Entity#ALL}
+         */
+        void invalidated(Entity entity, int id);
+    }
+
+    private static InvalidationBus instance;
+
+    // tells the own notifications from the ones of other servers
+    private final String node = UUID.randomUUID().toString();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final int pollMillis;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    /**
+     * Creates a bus.
+     * 
+     * @param pollMillis
+     *            - milliseconds between the checks for notifications, 0
+     *            disables the bus
+     */
+    public InvalidationBus(int pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Creates the default bus from the config and starts listening.
+     */
+    public static synchronized void startup() {
+        instance = new InvalidationBus(Config.INVALIDATION_POLL);
+        if (instance.isEnabled()) {
+            instance.thread = new Thread(instance, "invalidation-bus");
+            instance.thread.setDaemon(true);
+            instance.thread.start();
+        }
+    }
+
+    /**
+     * Stops listening.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.running = false;
+            if (instance.thread != null) {
+                instance.thread.interrupt();
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the default bus.
+     * 
+     * @return the bus configured from the config
+     */
+    public static synchronized InvalidationBus getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Registers a listener for the changes made by other servers.
+     * 
+     * @param listener
+     *            - the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Publishes a change to the other servers. The notification is sent when
+     * the transaction of the connection commits; failures are logged only,
+     * the entries expire from the caches anyway.
+     * 
+     * @param connection
+     *            - the connection the entity has been changed on
+     * @param entity
+     *            - the kind of the changed entity
+     * @param id
+     *            - the id of the changed entity
+     */
+    public static void publish(Connection connection, Entity entity, int id) {
+        InvalidationBus bus = getInstance();
+        if (!bus.isEnabled()) {
+            return;
+        }
+
+        PreparedStatement statement = null;
+        try {
+            try {
+                statement = connection.prepareStatement("SELECT pg_notify(?, ?);");
+                statement.setString(1, CHANNEL);
+                statement.setString(2, entity + ":" + id + ":" + bus.node);
+                statement.execute();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to publish the change of " + entity + " " + id, e);
+        }
+    }
+
+    /**
+     * Listens for notifications until the bus is shut down.
+     */
+    @Override
+    public void run() {
+        Connection connection = null;
+        boolean connectedBefore = false;
+
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = listen();
+                    if (connectedBefore) {
+                        dispatch(Entity.ALL, 0);
+                    }
+                    connectedBefore = true;
+                }
+
+                receive(connection);
+                Thread.sleep(pollMillis);
+            } catch (SQLException | ApplicationException e) {
+                LOGGER.log(Level.WARNING, "Lost the connection listening for changes, reconnecting.", e);
+                close(connection);
+                connection = null;
+                try {
+                    Thread.sleep(RETRY_DELAY);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        close(connection);
+    }
+
+    private boolean isEnabled() {
+        return pollMillis > 0;
+    }
+
+    private Connection listen() throws ApplicationException, SQLException {
+        Connection connection = ConnectionProducer.open();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL + ";");
+        } catch (SQLException e) {
+            close(connection);
+            throw e;
+        }
+        return connection;
+    }
+
+    private void receive(Connection connection) throws SQLException {
+        // the driver reads notifications only while talking to the server
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 1;");
+        }
+
+        PGNotification[] notifications = ((PGConnection) connection).getNotifications();
+        if (notifications == null) {
+            return;
+        }
+        for (PGNotification notification : notifications) {
+            String[] change = notification.getParameter().split(":");
+            if (change.length != 3 || isOwn(change[2])) {
+                continue;
+            }
+            try {
+                dispatch(Entity.valueOf(change[0]), Integer.parseInt(change[1]));
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Ignored the unknown change " + notification.getParameter(), e);
+            }
+        }
+    }
+
+    // the changes of this server are in its caches already, and handing them
+    // on would mark e.g. the question weights stale after every own round
+    private boolean isOwn(String sender) {
+        return node.equals(sender);
+    }
+
+    private void dispatch(Entity entity, int id) {
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidated(entity, id);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + entity + " " + id, e);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close the listening connection.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package cgwap.util.europeana;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import cgwap.util.Config;
+
+/**
+ * Sends requests to the Europeana API. All requests are GETs which are bounded
+ * by a connect timeout, a read timeout and an overall deadline, so a slow API
+ * can not hold on to the calling thread.
+ * 
+ * Connections are reused: the response body is always consumed and closed, but
+ * the connection is never disconnected, which hands the socket back to the
+ * JDK's keep-alive cache. The number of concurrent requests is bounded by the
+ * size of that cache.
+ * 
+ * The default client is configured from {@link Config}. Further clients can be
+ * created for another base URL, e.g. for a local stub server.
+ * 
+ */
+public class EuropeanaClient {
+
+    private static final Logger LOGGER = Logger.getLogger(EuropeanaClient.class.getName());
+
+    // remaining bytes which are read to keep the connection alive, if a handler
+    // stops early
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    private static EuropeanaClient instance;
+
+    private final String baseUrl;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int deadline;
+    private final Semaphore connections;
+    private final LatencyStatistics statistics = new LatencyStatistics();
+
+    /**
+     * Creates a client.
+     * 
+     * @param baseUrl
+     *            URL the parameters of a request are appended to
+     * @param connectTimeout
+     *            milliseconds to wait for a connection
+     * @param readTimeout
+     *            milliseconds to wait for the next data of a response
+     * @param deadline
+     *            milliseconds a whole request may take
+     * @param maxConnections
+     *            maximal number of concurrent requests
+     */
+    public EuropeanaClient(String baseUrl, int connectTimeout, int readTimeout, int deadline, int maxConnections) {
+        this.baseUrl = baseUrl;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.deadline = deadline;
+        this.connections = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * Creates the default client from the config. The JDK keeps at most
+     * http.maxConnections idle connections per host, which is raised to the
+     * number of concurrent requests unless it was set explicitly.
+     */
+    public static synchronized void startup() {
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Config.REQUEST_MAX_CONNECTIONS));
+        }
+        instance = new EuropeanaClient(Config.REQUEST_URL + Config.REQUEST_KEY + Config.REQUEST_PROFILE,
+                Config.REQUEST_CONNECT_TIMEOUT, Config.REQUEST_READ_TIMEOUT, Config.REQUEST_DEADLINE,
+                Config.REQUEST_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Logs the statistics of the default client.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            LOGGER.info("Europeana requests: " + instance.getStatistics());
+        }
+    }
+
+    /**
+     * Returns the default client.
+     * 
+     * @return the client configured from the config
+     */
+    public static synchronized EuropeanaClient getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    public LatencyStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sends a GET request and converts the response.
+     * 
+     * @param parameters
+     *            the URL parameters appended to the base URL
+     * @param handler
+     *            converts the response body
+     * @return the converted response
+     * @throws SocketTimeoutException
+     *             Thrown when the request did not finish within the deadline.
+     * @throws IOException
+     *             Thrown when the request failed or the API did not respond
+     *             with OK.
+     */
+    public <T> T get(String parameters, ResponseHandler<T> handler) throws IOException {
+        long start = System.currentTimeMillis();
+        long end = start + deadline;
+
+        try {
+            if (!connections.tryAcquire(deadline, TimeUnit.MILLISECONDS)) {
+                statistics.recordTimeout();
+                throw new SocketTimeoutException("No connection available within " + deadline + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            statistics.recordError();
+            throw new IOException("Interrupted on waiting for a connection.", e);
+        }
+
+        try {
+            T response = execute(new URL(baseUrl + parameters), handler, end);
+            statistics.record(System.currentTimeMillis() - start);
+            return response;
+        } catch (SocketTimeoutException e) {
+            statistics.recordTimeout();
+            throw e;
+        } catch (IOException e) {
+            statistics.recordError();
+            throw e;
+        } finally {
+            connections.release();
+        }
+    }
+
+    private <T> T execute(URL url, ResponseHandler<T> handler, long end) throws IOException {
+        int remaining = remaining(end);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(Math.min(connectTimeout, remaining));
+        connection.setReadTimeout(Math.min(readTimeout, remaining));
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        boolean reusable = false;
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                InputStream error = connection.getErrorStream();
+                if (error != null) {
+                    reusable = drain(error);
+                }
+                throw new IOException("Europeana responded with " + status + " " + connection.getResponseMessage());
+            }
+
+            InputStream raw = connection.getInputStream();
+            try {
+                InputStream body = new DeadlineInputStream(raw, end);
+                if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                    body = new GZIPInputStream(body);
+                }
+                T response = handler.handle(body);
+                reusable = drain(raw);
+                return response;
+            } finally {
+                raw.close();
+            }
+        } finally {
+            // a connection with unread data must not be reused
+            if (!reusable) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads what is left of a response, so its connection can be reused.
+     * 
+     * @return true if the end of the response was reached
+     */
+    private static boolean drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            drained += read;
+            if (drained > DRAIN_LIMIT) {
+                return false;
+            }
+        }
+        stream.close();
+        return true;
+    }
+
+    private static int remaining(long end) throws SocketTimeoutException {
+        long remaining = end - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Deadline exceeded");
+        }
+        return (int) remaining;
+    }
+
+    /**
+     * Aborts reading a response once the deadline of its request has passed.
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+
+        private final long end;
+
+        DeadlineInputStream(InputStream in, long end) {
+            super(in);
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            remaining(end);
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            remaining(end);
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            // the client closes the underlying stream
+        }
+    }
+}
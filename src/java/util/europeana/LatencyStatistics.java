@@ -0,0 +1,121 @@
+package cgwap.util.europeana;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the latencies of API requests. The values are kept in a histogram
+ * with buckets growing by powers of two, so recording a request never blocks
+ * and takes constant memory.
+ * 
+ */
+public class LatencyStatistics {
+
+    // bucket i holds latencies below 2^i milliseconds, the last one the rest
+    private static final int BUCKETS = 17;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * Records a successful request.
+     * 
+     * @param millis
+     *            duration of the request
+     */
+    public void record(long millis) {
+        requests.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        histogram.incrementAndGet(bucket(millis));
+
+        long max = maxMillis.get();
+        while (millis > max && !maxMillis.compareAndSet(max, millis)) {
+            max = maxMillis.get();
+        }
+    }
+
+    /**
+     * Records a request which failed.
+     */
+    public void recordError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Records a request which was aborted because it took too long.
+     */
+    public void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * Returns the average duration of the successful requests.
+     * 
+     * @return the average in milliseconds, 0 if there were no requests
+     */
+    public long getAverageMillis() {
+        long count = requests.get();
+        return count == 0 ? 0 : totalMillis.get() / count;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the successful
+     * requests' durations.
+     * 
+     * @param percentile
+     *            the percentile between 0 and 100
+     * @return the percentile in milliseconds, 0 if there were no requests
+     */
+    public long getPercentileMillis(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += histogram.get(i);
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank && seen > 0) {
+                return i == BUCKETS - 1 ? maxMillis.get() : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequests()
+                + ", errors=" + getErrors()
+                + ", timeouts=" + getTimeouts()
+                + ", avg=" + getAverageMillis() + "ms"
+                + ", p50<=" + getPercentileMillis(50) + "ms"
+                + ", p95<=" + getPercentileMillis(95) + "ms"
+                + ", p99<=" + getPercentileMillis(99) + "ms"
+                + ", max=" + getMaxMillis() + "ms";
+    }
+
+    private static int bucket(long millis) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(millis, 0));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
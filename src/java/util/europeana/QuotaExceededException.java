@@ -0,0 +1,23 @@
+package cgwap.util.europeana;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request to Europeana was not sent because the request quota
+ * is exhausted.
+ * 
+ */
+public class QuotaExceededException extends IOException {
+
+    private static final long serialVersionUID = 4127693312640574315L;
+
+    /**
+     * Creates the exception.
+     * 
+     * @param message
+     *            the detail message
+     */
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
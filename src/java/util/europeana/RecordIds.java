@@ -0,0 +1,64 @@
+package cgwap.util.europeana;
+
+import java.util.regex.Pattern;
+
+/**
+ * Converts references to Europeana records into canonical record ids. The
+ * search API identifies a record by its dataset and local id, e.g.
+ * "/2021672/resource_document_mauritshuis_670", while answers are given as
+ * portal URLs like "http://www.europeana.eu/portal/record/2021672/resource_document_mauritshuis_670.html".
+ * Both are converted into the form used by the API, so they can be compared
+ * exactly.
+ * 
+ */
+public class RecordIds {
+
+    private static final String RECORD_PATH = "/record";
+
+    private static final String PAGE_EXTENSION = ".html";
+
+    private static final Pattern RECORD_ID = Pattern.compile("/[^/\\s]+/[^/\\s]+");
+
+    private RecordIds() {
+    }
+
+    /**
+     * Returns the canonical record id of a portal URL or an API record id.
+     * 
+     * @param reference
+     *            the URL or id
+     * @return the record id, null if the reference does not denote a record
+     */
+    public static String canonicalize(String reference) {
+        if (reference == null) {
+            return null;
+        }
+
+        String id = reference.trim();
+        int record = id.lastIndexOf(RECORD_PATH + "/");
+        if (record >= 0) {
+            id = id.substring(record + RECORD_PATH.length());
+        }
+
+        // strip query and fragment
+        int end = id.length();
+        int query = id.indexOf('?');
+        int fragment = id.indexOf('#');
+        if (query >= 0) {
+            end = query;
+        }
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        id = id.substring(0, end);
+
+        if (id.endsWith(PAGE_EXTENSION)) {
+            id = id.substring(0, id.length() - PAGE_EXTENSION.length());
+        }
+        if (!id.startsWith("/")) {
+            id = "/" + id;
+        }
+
+        return RECORD_ID.matcher(id).matches() ? id : null;
+    }
+}
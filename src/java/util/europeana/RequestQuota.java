@@ -0,0 +1,214 @@
+package cgwap.util.europeana;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import cgwap.util.Config;
+
+/**
+ * Limits the requests sent with our API key. All requests share a global
+ * token bucket; in addition every user has a smaller bucket of their own, so a
+ * single user can not use up the global budget.
+ * 
+ * Requests of users may wait a while for a token. Background requests, e.g.
+ * refreshing the cache, never wait and leave a reserve of tokens to the users.
+ * 
+ * A request shared by several users takes the user's token before it is
+ * shared, by {@link #acquireUser(int)}, and only the global one once shared,
+ * by {@link #acquireGlobal(Priority)}; so no user waits for the token of
+ * another.
+ * 
+ */
+public class RequestQuota {
+
+    /**
+     * The priority of a request.
+     */
+    public enum Priority {
+        /**
+         * A user waits for the request.
+         */
+        INTERACTIVE,
+        /**
+         * Nobody waits for the request.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * User id used for requests not made on behalf of a user.
+     */
+    public static final int NO_USER = 0;
+
+    private static RequestQuota instance;
+
+    private final TokenBucket global;
+    private final LoadingCache<Integer, TokenBucket> users;
+    private final long maxWaitNanos;
+    private final int backgroundReserve;
+
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a quota.
+     * 
+     * @param rate
+     *            requests per second of all users together
+     * @param burst
+     *            requests of all users which may be sent at once
+     * @param userRate
+     *            requests per second of a single user
+     * @param userBurst
+     *            requests of a single user which may be sent at once
+     * @param maxWaitMillis
+     *            how long an interactive request may wait for a token
+     */
+    public RequestQuota(double rate, int burst, final double userRate, final int userBurst, int maxWaitMillis) {
+        this.global = new TokenBucket(rate, burst);
+        this.users = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build(new CacheLoader<Integer, TokenBucket>() {
+                    @Override
+                    public TokenBucket load(Integer userId) {
+                        return new TokenBucket(userRate, userBurst);
+                    }
+                });
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.backgroundReserve = burst / 2;
+    }
+
+    /**
+     * Creates the default quota from the config.
+     */
+    public static synchronized void startup() {
+        instance = new RequestQuota(Config.REQUEST_RATE, Config.REQUEST_BURST, Config.REQUEST_USER_RATE,
+                Config.REQUEST_USER_BURST, Config.REQUEST_QUEUE_TIMEOUT);
+    }
+
+    /**
+     * Returns the default quota.
+     * 
+     * @return the quota configured from the config
+     */
+    public static synchronized RequestQuota getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Acquires the permission to send a request. An interactive request waits
+     * until a token is available, unless that takes longer than allowed.
+     * 
+     * @param userId
+     *            the user the request is made for, {@link #NO_USER} for none
+     * @param priority
+     *            the priority of the request
+     * @return true if the request may be sent, false if the quota is
+     *         exhausted
+     * @throws InterruptedIOException
+     *             Thrown when the thread was interrupted while waiting.
+     */
+    public boolean acquire(int userId, Priority priority) throws InterruptedIOException {
+        if (priority == Priority.BACKGROUND) {
+            return acquireGlobal(priority);
+        }
+        if (!acquireUser(userId)) {
+            return false;
+        }
+        if (!acquireGlobal(priority)) {
+            giveBack(userId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Acquires the token of a user for an interactive request, waiting until
+     * it is available unless that takes longer than allowed. The request may
+     * only be sent after {@link #acquireGlobal(Priority)} has succeeded as
+     * well.
+     * 
+     * @param userId
+     *            the user the request is made for
+     * @return true if the user may send the request, false if the user's
+     *         quota is exhausted
+     * @throws InterruptedIOException
+     *             Thrown when the thread was interrupted while waiting.
+     */
+    public boolean acquireUser(int userId) throws InterruptedIOException {
+        long wait = users.getUnchecked(userId).take(maxWaitNanos, 0);
+        if (wait < 0) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        sleep(wait);
+        return true;
+    }
+
+    /**
+     * Returns the token of a user taken by {@link #acquireUser(int)}, when the
+     * request is not sent after all.
+     * 
+     * @param userId
+     *            the user the token was taken for
+     */
+    public void giveBack(int userId) {
+        users.getUnchecked(userId).giveBack();
+    }
+
+    /**
+     * Acquires the global permission to send a request. An interactive
+     * request waits until a token is available, unless that takes longer than
+     * allowed.
+     * 
+     * @param priority
+     *            the priority of the request
+     * @return true if the request may be sent, false if the quota is
+     *         exhausted
+     * @throws InterruptedIOException
+     *             Thrown when the thread was interrupted while waiting.
+     */
+    public boolean acquireGlobal(Priority priority) throws InterruptedIOException {
+        long wait;
+        if (priority == Priority.BACKGROUND) {
+            wait = global.take(0, backgroundReserve);
+        } else {
+            wait = global.take(maxWaitNanos, 0);
+        }
+
+        if (wait < 0) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        sleep(wait);
+        granted.incrementAndGet();
+        return true;
+    }
+
+    private void sleep(long wait) throws InterruptedIOException {
+        if (wait == 0) {
+            return;
+        }
+        delayed.incrementAndGet();
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on waiting for the request quota.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "granted=" + granted.get() + ", delayed=" + delayed.get() + ", rejected=" + rejected.get();
+    }
+}
@@ -0,0 +1,25 @@
+package cgwap.util.europeana;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Converts the body of an API response. A handler may stop reading as soon as
+ * it has everything it needs, the client takes care of the rest of the body.
+ * 
+ * @param <T>
+ *            the type the response is converted into
+ */
+public interface ResponseHandler<T> {
+
+    /**
+     * Converts the response body.
+     * 
+     * @param body
+     *            the decoded response body, must not be closed by the handler
+     * @return the converted response
+     * @throws IOException
+     *             Thrown when the body could not be read or converted.
+     */
+    T handle(InputStream body) throws IOException;
+}
@@ -0,0 +1,505 @@
+package cgwap.util.europeana;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+import cgwap.util.cache.CacheSnapshot;
+import cgwap.util.cache.SingleFlight;
+import cgwap.util.europeana.RequestQuota.Priority;
+import cgwap.util.local_search.LocalSearchIndex;
+
+/**
+ * Caches the results of Europeana searches by their {@link SearchKey}. The
+ * cache is bounded in size and its entries expire after a fixed time.
+ * 
+ * Entries older than the refresh time are stale but still served: the first
+ * request hitting a stale entry gets the old results at once and triggers a
+ * reload in the background (stale-while-revalidate). Failed searches and
+ * responses without items are not cached.
+ * 
+ * The cached searches are kept in the {@link CacheSnapshot} across restarts;
+ * they are restored in the background after startup. An entry expires when it
+ * would have without the restart; results kept after a skipped reload do not
+ * outlive it either.
+ * 
+ */
+public class SearchCache {
+
+    private static final Logger LOGGER = Logger.getLogger(SearchCache.class.getName());
+
+    /**
+     * Name and version of the section in the cache snapshot, the version has
+     * to be increased whenever the encoding of the entries changes.
+     */
+    private static final String SNAPSHOT_SECTION = "searches";
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static SearchCache instance;
+
+    private final EuropeanaClient client;
+    private final RequestQuota quota;
+    private final LocalSearchIndex index;
+    private final int limit;
+    private final int expireSeconds;
+    private final ExecutorService refresher;
+    private final LoadingCache<SearchKey, Entry> cache;
+    private final SingleFlight<SearchKey, List<Result>> inFlight = new SingleFlight<SearchKey, List<Result>>();
+
+    // searches which waited for the load of another search with their key
+    private final AtomicLong joined = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     * 
+     * @param client
+     *            the client used to search
+     * @param quota
+     *            limits the searches sent to Europeana
+     * @param index
+     *            the index the results of all searches are added to, may be
+     *            null
+     * @param limit
+     *            number of results kept per search
+     * @param size
+     *            maximal number of cached searches
+     * @param refreshSeconds
+     *            seconds after which an entry is reloaded in the background
+     * @param expireSeconds
+     *            seconds after which an entry is removed
+     */
+    public SearchCache(EuropeanaClient client, RequestQuota quota, LocalSearchIndex index, int limit, int size,
+            int refreshSeconds, int expireSeconds) {
+        this.client = client;
+        this.quota = quota;
+        this.index = index;
+        this.limit = limit;
+        this.expireSeconds = expireSeconds;
+        this.refresher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("search-cache-refresh-%d")
+                .build());
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build(new SearchLoader());
+    }
+
+    /**
+     * Creates the default cache from the config.
+     */
+    public static synchronized void startup() {
+        instance = new SearchCache(EuropeanaClient.getInstance(), RequestQuota.getInstance(),
+                LocalSearchIndex.getInstance(), Config.NUMBER_OF_RESULTS, Config.SEARCH_CACHE_SIZE,
+                Config.SEARCH_CACHE_REFRESH, Config.SEARCH_CACHE_EXPIRE);
+
+        final SearchCache cache = instance;
+        instance.refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.restore(CacheSnapshot.getInstance());
+            }
+        });
+    }
+
+    /**
+     * Logs the statistics of the default cache and stops its background
+     * reloads.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            LOGGER.info("Search cache: " + instance.getStatistics());
+            LOGGER.info("Search requests: " + instance.inFlight + ", joined=" + instance.joined.get());
+            LOGGER.info("Request quota: " + instance.quota);
+            instance.refresher.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * Adds the searches of the default cache to the snapshot.
+     * 
+     * @param snapshot
+     *            the snapshot written at shutdown
+     * @throws IOException
+     */
+    public static synchronized void save(CacheSnapshot.Writer snapshot) throws IOException {
+        if (instance == null) {
+            return;
+        }
+        Map<SearchKey, Entry> searches = new HashMap<SearchKey, Entry>(instance.cache.asMap());
+
+        CacheSnapshot.Output output = snapshot.section(SNAPSHOT_SECTION, SNAPSHOT_VERSION);
+        output.writeInt(searches.size());
+        for (Map.Entry<SearchKey, Entry> search : searches.entrySet()) {
+            SearchKey key = search.getKey();
+            output.writeLong(search.getValue().written);
+            output.writeString(key.getQuery());
+            output.writeString(key.getCountry());
+            output.writeString(key.getLanguage());
+            output.writeString(key.getType());
+            output.writeInt(key.getPage());
+            output.writeInt(search.getValue().results.size());
+            for (Result result : search.getValue().results) {
+                output.writeString(result.getId());
+                output.writeString(result.getTitle());
+                output.writeString(result.getPreview());
+                output.writeString(result.getDescription());
+                output.writeBoolean(result.isImage());
+                output.writeBoolean(result.isText());
+                output.writeBoolean(result.isSound());
+                output.writeBoolean(result.isVideo());
+            }
+        }
+    }
+
+    /**
+     * Returns the default cache.
+     * 
+     * @return the cache configured from the config
+     */
+    public static synchronized SearchCache getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the results of a search, from the cache if possible. Searches
+     * sent to Europeana count against the request quota of the user; if it is
+     * exhausted, the cached results of the same query without filters are
+     * returned instead.
+     * 
+     * @param key
+     *            the search
+     * @param userId
+     *            the user searching
+     * @return the results, unmodifiable
+     * @throws QuotaExceededException
+     *             Thrown when the quota is exhausted and there are no results
+     *             to fall back to.
+     * @throws IOException
+     *             Thrown when the search failed or its response contained no
+     *             items.
+     */
+    public List<Result> search(SearchKey key, int userId) throws IOException {
+        return search(key, userId, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Returns the results of a search, from the cache if possible. Background
+     * searches, e.g. prefetching the next page of results, use the reserve of
+     * the global quota only and do not wait for it.
+     * 
+     * Users searching the same key at the same time share one load. The
+     * user's token is taken before the load is shared, so nobody waits for
+     * the token of another user; if the shared load failed for the lack of
+     * another user's token, the search is tried once more.
+     * 
+     * @param key
+     *            the search
+     * @param userId
+     *            the user searching
+     * @param priority
+     *            the priority of the search
+     * @return the results, unmodifiable
+     * @throws QuotaExceededException
+     *             Thrown when the quota is exhausted and there are no results
+     *             to fall back to.
+     * @throws IOException
+     *             Thrown when the search failed or its response contained no
+     *             items.
+     */
+    public List<Result> search(SearchKey key, int userId, Priority priority) throws IOException {
+        removeIfExpired(key);
+        if (cache.asMap().containsKey(key)) {
+            Entry entry = cache.getIfPresent(key);
+            if (entry != null) {
+                return entry.results;
+            }
+        }
+
+        boolean permitted = priority == Priority.BACKGROUND || quota.acquireUser(userId);
+        boolean sent = false;
+        try {
+            for (int attempt = 1;; attempt++) {
+                Load load = new Load(key, priority, permitted);
+                IOException failure;
+                try {
+                    List<Result> results = cache.get(key, load).results;
+                    if (!load.started) {
+                        joined.incrementAndGet();
+                    }
+                    return results;
+                } catch (ExecutionException e) {
+                    failure = unwrap(e.getCause());
+                } catch (UncheckedExecutionException e) {
+                    failure = unwrap(e.getCause());
+                } finally {
+                    sent |= load.sent;
+                }
+                // only the user who started the load may run out of tokens
+                if (!(failure instanceof QuotaExceededException) || load.started || !permitted || attempt > 1) {
+                    return fallback(key, failure);
+                }
+            }
+        } finally {
+            if (priority == Priority.INTERACTIVE && permitted && !sent) {
+                // the search has not been sent for this user
+                quota.giveBack(userId);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached results of a search without searching.
+     * 
+     * @param key
+     *            the search
+     * @return the results, null if they are not cached
+     */
+    public List<Result> getIfPresent(SearchKey key) {
+        removeIfExpired(key);
+        Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.results;
+    }
+
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of requests to Europeana that were saved by sharing
+     * a running request: searches that waited for the load of another search
+     * with their key, and loads that shared a request with a background
+     * reload.
+     * 
+     * @return the number of saved requests
+     */
+    public long getSavedRequests() {
+        return joined.get() + inFlight.getShared();
+    }
+
+    /**
+     * Returns the share of searches answered from the cache.
+     * 
+     * @return the hit ratio between 0 and 1
+     */
+    public double getHitRatio() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * Searches at Europeana. Concurrent searches with the same key, e.g. a
+     * background reload and a load after the entry expired, share one request.
+     */
+    private Entry load(final SearchKey key) throws IOException {
+        try {
+            List<Result> results = inFlight.execute(key, new Callable<List<Result>>() {
+                @Override
+                public List<Result> call() throws IOException {
+                    List<Result> results = client.get(key.toUrlParameters(), new SearchResultParser(limit));
+                    if (results == null) {
+                        throw new IOException("Response for " + key + " contains no items.");
+                    }
+                    if (index != null) {
+                        index.addAll(results, key.getQuery());
+                    }
+                    return Collections.unmodifiableList(results);
+                }
+            });
+            return new Entry(results, System.currentTimeMillis());
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted on waiting for " + key);
+        }
+    }
+
+    /**
+     * Adds the searches of the snapshot to the cache, unless they have been
+     * searched again or have expired in the meantime.
+     */
+    private void restore(CacheSnapshot snapshot) {
+        CacheSnapshot.Input input = snapshot.take(SNAPSHOT_SECTION, SNAPSHOT_VERSION, expireSeconds);
+        if (input == null) {
+            return;
+        }
+
+        try {
+            int count = input.readInt();
+            int restored = 0;
+            for (int i = 0; i < count; i++) {
+                long written = input.readLong();
+                SearchKey key = new SearchKey(input.readString(), input.readString(), input.readString(),
+                        input.readString()).withPage(input.readInt());
+                int size = input.readInt();
+                List<Result> results = new ArrayList<Result>(size);
+                for (int j = 0; j < size; j++) {
+                    Result result = new Result();
+                    result.setId(input.readString());
+                    result.setTitle(input.readString());
+                    result.setPreview(input.readString());
+                    result.setDescription(input.readString());
+                    result.setImage(input.readBoolean());
+                    result.setText(input.readBoolean());
+                    result.setSound(input.readBoolean());
+                    result.setVideo(input.readBoolean());
+                    results.add(result);
+                }
+                Entry entry = new Entry(Collections.unmodifiableList(results), written);
+                if (!isExpired(entry)) {
+                    cache.asMap().putIfAbsent(key, entry);
+                    restored++;
+                }
+            }
+            LOGGER.info("Restored " + restored + " of " + count + " searches from the cache snapshot.");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to restore the searches from the cache snapshot.", e);
+        }
+    }
+
+    /**
+     * Removes an entry that is older than the expire time. The cache counts
+     * the lifetime of an entry from its last write, but a restored entry or
+     * one kept after a skipped reload has been written before.
+     */
+    private void removeIfExpired(SearchKey key) {
+        Entry entry = cache.asMap().get(key);
+        if (entry != null && isExpired(entry)) {
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.written >= expireSeconds * 1000L;
+    }
+
+    private List<Result> fallback(SearchKey key, IOException e) throws IOException {
+        if (e instanceof QuotaExceededException) {
+            List<Result> unfiltered = getIfPresent(key.withoutFilters());
+            if (unfiltered != null) {
+                return unfiltered;
+            }
+        }
+        throw e;
+    }
+
+    private static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException("Search failed.", cause);
+    }
+
+    /**
+     * Loads a search for the user who started it, and for everybody
+     * searching the same key in the meantime. The user's token has been taken
+     * before, the global one is taken here.
+     */
+    private class Load implements Callable<Entry> {
+
+        private final SearchKey key;
+        private final Priority priority;
+        private final boolean permitted;
+
+        // run by the thread which started the load
+        boolean started = false;
+        boolean sent = false;
+
+        Load(SearchKey key, Priority priority, boolean permitted) {
+            this.key = key;
+            this.priority = priority;
+            this.permitted = permitted;
+        }
+
+        @Override
+        public Entry call() throws IOException {
+            started = true;
+            if (!permitted || !quota.acquireGlobal(priority)) {
+                throw new QuotaExceededException("Request quota exhausted for " + key);
+            }
+            sent = true;
+            return load(key);
+        }
+    }
+
+    private class SearchLoader extends CacheLoader<SearchKey, Entry> {
+
+        @Override
+        public Entry load(SearchKey key) throws IOException {
+            if (!quota.acquire(RequestQuota.NO_USER, Priority.BACKGROUND)) {
+                throw new QuotaExceededException("Request quota exhausted for " + key);
+            }
+            return SearchCache.this.load(key);
+        }
+
+        /**
+         * Reloads a stale entry in the background. Until the reload finished,
+         * the stale results are served; if it fails, they are kept until they
+         * expire and the next request tries again. If the quota leaves no room
+         * for background requests, the stale results are kept for another
+         * refresh period.
+         */
+        @Override
+        public ListenableFuture<Entry> reload(final SearchKey key, Entry oldValue)
+                throws InterruptedIOException {
+            if (!quota.acquire(RequestQuota.NO_USER, Priority.BACKGROUND)) {
+                return Futures.immediateFuture(oldValue);
+            }
+            ListenableFutureTask<Entry> task = ListenableFutureTask.create(new Callable<Entry>() {
+                @Override
+                public Entry call() throws IOException {
+                    return SearchCache.this.load(key);
+                }
+            });
+            refresher.execute(task);
+            return task;
+        }
+    }
+
+    /**
+     * The results of a search and the time they have been received.
+     */
+    private static class Entry {
+
+        final List<Result> results;
+
+        final long written;
+
+        Entry(List<Result> results, long written) {
+            this.results = results;
+            this.written = written;
+        }
+    }
+}
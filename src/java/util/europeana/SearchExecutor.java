@@ -0,0 +1,126 @@
+package cgwap.util.europeana;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+import cgwap.util.europeana.RequestQuota.Priority;
+
+/**
+ * Runs searches in the background, so request threads do not wait for
+ * Europeana. The number of threads and of waiting searches is bounded; when
+ * both are exhausted, further searches fail at once instead of piling up.
+ * 
+ */
+public class SearchExecutor {
+
+    private static SearchExecutor instance;
+
+    private final SearchCache cache;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates an executor.
+     * 
+     * @param cache
+     *            the cache used to search
+     * @param threads
+     *            number of concurrent searches
+     * @param queueSize
+     *            maximal number of searches waiting for a thread
+     */
+    public SearchExecutor(SearchCache cache, int threads, int queueSize) {
+        this.cache = cache;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-%d").build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates the default executor from the config.
+     */
+    public static synchronized void startup() {
+        instance = new SearchExecutor(SearchCache.getInstance(), Config.SEARCH_THREADS, Config.SEARCH_QUEUE_SIZE);
+    }
+
+    /**
+     * Stops the default executor, running searches are interrupted.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.executor.shutdownNow();
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the default executor.
+     * 
+     * @return the executor configured from the config
+     */
+    public static synchronized SearchExecutor getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts a search. Cached results are returned without using a thread.
+     * 
+     * @param key
+     *            the search
+     * @param userId
+     *            the user searching
+     * @return the future results; fails with an IOException if the search
+     *         failed or too many searches are waiting
+     */
+    public ListenableFuture<List<Result>> submit(SearchKey key, int userId) {
+        return submit(key, userId, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Starts a search with the given priority. Cached results are returned
+     * without using a thread.
+     * 
+     * @param key
+     *            the search
+     * @param userId
+     *            the user searching
+     * @param priority
+     *            the priority of the search
+     * @return the future results; fails with an IOException if the search
+     *         failed or too many searches are waiting
+     */
+    public ListenableFuture<List<Result>> submit(final SearchKey key, final int userId, final Priority priority) {
+        List<Result> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+
+        ListenableFutureTask<List<Result>> task = ListenableFutureTask.create(new Callable<List<Result>>() {
+            @Override
+            public List<Result> call() throws IOException {
+                return cache.search(key, userId, priority);
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(new IOException("Too many searches waiting.", e));
+        }
+        return task;
+    }
+}
@@ -0,0 +1,204 @@
+package cgwap.util.europeana;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Locale;
+
+import cgwap.util.Config;
+
+/**
+ * Identifies a search: the normalized query plus the country, language and
+ * type filters and the page of results. Two searches with equal keys get the
+ * same response, so the key is used to cache responses.
+ * 
+ */
+public class SearchKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String query;
+    private final String country;
+    private final String language;
+    private final String type;
+    private final int page;
+
+    /**
+     * Creates a key for the first page of results. Empty filters are ignored.
+     * 
+     * @param query
+     *            the query entered by the user
+     * @param country
+     *            the country filter, may be null
+     * @param language
+     *            the language filter, may be null
+     * @param type
+     *            the type filter, may be null
+     */
+    public SearchKey(String query, String country, String language, String type) {
+        this(normalize(query), emptyToNull(country), emptyToNull(language),
+                type == null ? null : emptyToNull(type.toUpperCase(Locale.ROOT)), 0);
+    }
+
+    private SearchKey(String query, String country, String language, String type, int page) {
+        this.query = query;
+        this.country = country;
+        this.language = language;
+        this.type = type;
+        this.page = page;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * Returns the key of the same query without any filters.
+     * 
+     * @return the unfiltered key
+     */
+    public SearchKey withoutFilters() {
+        return new SearchKey(query, null, null, null, page);
+    }
+
+    /**
+     * Returns the key of another page of the same search. A page holds
+     * {@link Config#NUMBER_OF_RESULTS} results.
+     * 
+     * @param page
+     *            the page, starting with 0
+     * @return the key of the page
+     */
+    public SearchKey withPage(int page) {
+        if (page < 0) {
+            throw new IllegalArgumentException("page < 0: " + page);
+        }
+        return new SearchKey(query, country, language, type, page);
+    }
+
+    /**
+     * Builds the URL parameters of the search.
+     * 
+     * @return the encoded parameters
+     */
+    public String toUrlParameters() {
+        StringBuilder parameters = new StringBuilder();
+        parameters.append(Config.REQUEST_ROWS);
+        if (page > 0) {
+            // Europeana counts results starting with 1
+            parameters.append(Config.REQUEST_START).append(page * Config.NUMBER_OF_RESULTS + 1);
+        }
+        parameters.append(Config.REQUEST_QUERY).append(encode(query));
+        if (country != null) {
+            parameters.append(Config.REQUEST_FILTER).append(encode(country));
+        }
+        if (language != null) {
+            parameters.append(Config.REQUEST_FILTER).append(encode(language));
+        }
+        if (type != null) {
+            parameters.append(Config.REQUEST_FILTER).append(encode(type));
+        }
+        return parameters.toString();
+    }
+
+    /**
+     * Collapses the whitespace of the query and lower cases its free text
+     * terms. Field clauses like TYPE:IMAGE, including a quoted value, and the
+     * operators AND, OR, NOT and TO are kept, as they are case sensitive.
+     */
+    private static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder();
+        // within the quoted value of a field clause
+        boolean inField = false;
+        for (String term : query.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            if (inField || term.indexOf(':') >= 0 || isOperator(term)) {
+                normalized.append(term);
+                if (inField) {
+                    inField = !term.endsWith("\"");
+                } else if (term.indexOf(':') >= 0) {
+                    String value = term.substring(term.indexOf(':') + 1);
+                    inField = value.startsWith("\"") && (value.length() == 1 || !value.endsWith("\""));
+                }
+            } else {
+                normalized.append(term.toLowerCase(Locale.ROOT));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static boolean isOperator(String term) {
+        return term.equals("AND") || term.equals("OR") || term.equals("NOT") || term.equals("TO");
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = query.hashCode();
+        hash = 31 * hash + (country == null ? 0 : country.hashCode());
+        hash = 31 * hash + (language == null ? 0 : language.hashCode());
+        hash = 31 * hash + (type == null ? 0 : type.hashCode());
+        hash = 31 * hash + page;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SearchKey)) {
+            return false;
+        }
+        SearchKey other = (SearchKey) obj;
+        return query.equals(other.query)
+                && equal(country, other.country)
+                && equal(language, other.language)
+                && equal(type, other.type)
+                && page == other.page;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        return query + " [" + country + ", " + language + ", " + type + "]" + (page > 0 ? " page " + page : "");
+    }
+}
@@ -0,0 +1,142 @@
+package cgwap.util.europeana;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+
+/**
+ * Reads the results of a search response. The response is parsed as a stream
+ * of tokens: only id, title, preview and type of the first items are read, all
+ * other fields are skipped and parsing stops as soon as enough items were
+ * found.
+ * 
+ */
+public class SearchResultParser implements ResponseHandler<List<Result>> {
+
+    // the factory is thread safe once configured, the body is closed by the
+    // client
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private final int limit;
+
+    /**
+     * Creates a parser.
+     * 
+     * @param limit
+     *            maximal number of results to read
+     */
+    public SearchResultParser(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Reads the results of a search response.
+     * 
+     * @return the results, null if the response contains no items
+     */
+    @Override
+    public List<Result> handle(InputStream body) throws IOException {
+        JsonParser parser = FACTORY.createJsonParser(body);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not a JSON object.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals(Config.RESPONSE_ITEMS) && value == JsonToken.START_ARRAY) {
+                    return readItems(parser);
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private List<Result> readItems(JsonParser parser) throws IOException {
+        List<Result> results = new ArrayList<Result>(limit);
+        while (results.size() < limit && parser.nextToken() == JsonToken.START_OBJECT) {
+            results.add(readItem(parser));
+        }
+        return results;
+    }
+
+    private static Result readItem(JsonParser parser) throws IOException {
+        Result result = new Result();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            if (field.equals(Config.ITEM_ID)) {
+                result.setId(readString(parser));
+            } else if (field.equals(Config.ITEM_TITLE)) {
+                result.setTitle(readString(parser));
+            } else if (field.equals(Config.ITEM_PREVIEW)) {
+                result.setPreview(readString(parser));
+            } else if (field.equals(Config.ITEM_TYPE)) {
+                setType(result, readString(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (result.getTitle() == null) {
+            result.setTitle("");
+        }
+        if (result.getPreview() == null) {
+            result.setPreview("");
+        }
+        if (result.getId() == null) {
+            result.setId("no id available");
+        }
+        return result;
+    }
+
+    /**
+     * Reads the current value as text. Of an array, e.g. the title, only the
+     * first element is used.
+     */
+    private static String readString(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            return parser.getCurrentToken().isScalarValue() ? parser.getText() : skip(parser);
+        }
+
+        String first = null;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first == null && parser.getCurrentToken().isScalarValue()) {
+                first = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return first;
+    }
+
+    private static String skip(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    private static void setType(Result result, String type) {
+        if (Config.TYPE_IMAGE.equals(type)) {
+            result.setImage(true);
+        } else if (Config.TYPE_TEXT.equals(type)) {
+            result.setText(true);
+        } else if (Config.TYPE_VIDEO.equals(type)) {
+            result.setVideo(true);
+        } else if (Config.TYPE_SOUND.equals(type)) {
+            result.setSound(true);
+        }
+    }
+}
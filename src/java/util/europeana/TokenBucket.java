@@ -0,0 +1,75 @@
+package cgwap.util.europeana;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket. Instead of counting tokens, the bucket stores the
+ * point in time at which it will be full again; taking a token moves that
+ * point one interval into the future. A single compare-and-set per token
+ * keeps the bucket consistent under concurrent use.
+ * 
+ */
+public class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong fullAt;
+
+    /**
+     * Creates a full bucket.
+     * 
+     * @param rate
+     *            tokens added per second
+     * @param burst
+     *            maximal number of tokens the bucket holds
+     */
+    public TokenBucket(double rate, int burst) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.tolerance = interval * Math.max(burst - 1, 0);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token, reserving the next one if the bucket is empty.
+     * 
+     * @param maxWaitNanos
+     *            how long the caller is willing to wait for a token
+     * @param reserve
+     *            number of tokens which have to be left in the bucket, so
+     *            callers of lower priority do not empty it
+     * @return the nanoseconds to wait until the token may be used, -1 if no
+     *         token could be taken
+     */
+    public long take(long maxWaitNanos, int reserve) {
+        long limit = tolerance - reserve * interval;
+        while (true) {
+            long now = System.nanoTime();
+            long full = fullAt.get();
+            long wait = Math.max(full - now - limit, 0);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (fullAt.compareAndSet(full, Math.max(full, now) + interval)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #take(long, int)}, e.g. when the request
+     * it was taken for is not sent after all.
+     */
+    public void giveBack() {
+        fullAt.addAndGet(-interval);
+    }
+
+    /**
+     * Takes a token if one is available right now.
+     * 
+     * @return true if a token was taken
+     */
+    public boolean tryTake() {
+        return take(0, 0) == 0;
+    }
+}
@@ -73,6 +73,7 @@ abstract class LoaderServlet extends HttpServlet {
         } else {
             response.setHeader("Content-Length", String.valueOf(file.length()));
         }
+        setCacheHeaders(file, response);
 
         // write file content to output stream
         RandomAccessFile input = null;
@@ -100,6 +101,16 @@ abstract class LoaderServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Sets caching headers for a file which is about to be delivered. Called after the response was
+     * reset, does nothing by default.
+     * 
+     * @param file the file to deliver
+     * @param response the response to set the headers in
+     */
+    protected void setCacheHeaders(File file, HttpServletResponse response) {
+    }
+
     /**
      * Whether the user's browser accepts GZIP encoding (indicated through the Accept-Encoding HTTP
      * header).
@@ -0,0 +1,390 @@
+package cgwap.util.file_loader;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import cgwap.util.Config;
+import cgwap.util.cache.SingleFlight;
+
+/**
+ * Delivers the preview images of search results through our server. A preview
+ * is fetched from its origin once, scaled down to a thumbnail and stored in the
+ * 'previews' directory below IMAGE_STORING_LOCATION. Browsers get a strong ETag
+ * and may cache the thumbnail; revalidations are answered with 304.
+ * 
+ * The directory is bounded in size: when it grows beyond PREVIEW_CACHE_SIZE,
+ * the least recently delivered thumbnails are deleted. Only previews from the
+ * hosts in PREVIEW_HOSTS are fetched; if fetching fails, the browser is
+ * redirected to the original image.
+ * 
+ */
+@WebServlet("/rest/preview")
+public class PreviewLoaderServlet extends LoaderServlet {
+
+    private static final long serialVersionUID = -7795512463126051548L;
+
+    private static final Logger LOGGER = Logger.getLogger(PreviewLoaderServlet.class.getName());
+
+    /**
+     * Path of the servlet relative to the context root, the preview's URL is
+     * passed in the parameter 'url'.
+     */
+    public static final String PATH = "/rest/preview";
+
+    private static final String PREVIEW_DIRECTORY = "previews";
+
+    private static final String THUMBNAIL_EXTENSION = ".jpg";
+
+    /**
+     * Maximal size of an original preview image in bytes.
+     */
+    private static final int MAX_ORIGINAL_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Share of the maximal size the directory is reduced to by an eviction.
+     */
+    private static final double EVICTION_TARGET = 0.9;
+
+    /**
+     * Milliseconds after which a delivery updates the modification time of a
+     * thumbnail again, so that not every delivery writes to the disk.
+     */
+    private static final long TOUCH_INTERVAL = 60 * 60 * 1000;
+
+    /**
+     * Maximal number of redirects followed when fetching a preview.
+     */
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final FileFilter THUMBNAILS = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(THUMBNAIL_EXTENSION);
+        }
+    };
+
+    private File directory;
+
+    private final AtomicLong directorySize = new AtomicLong();
+
+    private final SingleFlight<String, File> fetches = new SingleFlight<String, File>();
+
+    /**
+     * Initializes the Servlet and the preview directory.
+     */
+    @Override
+    public void init() throws ServletException {
+        directory = new File(Config.IMAGE_STORING_LOCATION, PREVIEW_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.warning("Preview directory \"" + directory.getAbsolutePath() + "\" could not be created. ");
+        }
+
+        long size = 0;
+        File[] thumbnails = directory.listFiles(THUMBNAILS);
+        if (thumbnails != null) {
+            for (File thumbnail : thumbnails) {
+                size += thumbnail.length();
+            }
+        }
+        directorySize.set(size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        final String previewUrl = request.getParameter("url");
+        if (!isAllowed(previewUrl)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            request.getRequestDispatcher(LoaderServlet.FILE_NOT_FOUND_ERROR_PAGE).forward(request, response);
+            return;
+        }
+
+        File thumbnail = new File(directory, hash(previewUrl) + THUMBNAIL_EXTENSION);
+        if (!thumbnail.canRead()) {
+            try {
+                thumbnail = fetches.execute(previewUrl, new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return fetch(previewUrl);
+                    }
+                });
+            } catch (ExecutionException | InterruptedException e) {
+                LOGGER.log(Level.INFO, "Failed to fetch preview " + previewUrl, e);
+                response.sendRedirect(previewUrl);
+                return;
+            }
+        }
+
+        // the modification time orders the thumbnails for eviction, to the
+        // nearest TOUCH_INTERVAL
+        long now = System.currentTimeMillis();
+        if (now - thumbnail.lastModified() > TOUCH_INTERVAL) {
+            thumbnail.setLastModified(now);
+        }
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, getETag(thumbnail))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            setCacheHeaders(thumbnail, response);
+            return;
+        }
+
+        try {
+            // JPEG is compressed already
+            writeFileToOutputstream(thumbnail, response, false);
+        } catch (FileNotFoundException e) {
+            // evicted in the meantime
+            LOGGER.log(Level.INFO, "Preview evicted while delivering it", e);
+            response.sendRedirect(previewUrl);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setCacheHeaders(File file, HttpServletResponse response) {
+        response.setHeader("ETag", getETag(file));
+        response.setHeader("Cache-Control", "public, max-age=" + Config.PREVIEW_MAX_AGE);
+    }
+
+    /**
+     * A thumbnail never changes once it is stored, so its name and size
+     * identify its content. The modification time is not used, it changes
+     * with deliveries.
+     */
+    private String getETag(File thumbnail) {
+        String name = thumbnail.getName();
+        return "\"" + name.substring(0, name.length() - THUMBNAIL_EXTENSION.length()) + "-"
+                + Long.toHexString(thumbnail.length()) + "\"";
+    }
+
+    private boolean matches(String ifNoneMatch, String eTag) {
+        for (String candidate : ifNoneMatch.split("\\s*,\\s*")) {
+            if (candidate.equals(eTag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAllowed(String previewUrl) {
+        if (previewUrl == null) {
+            return false;
+        }
+        try {
+            URL url = new URL(previewUrl);
+            if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+                return false;
+            }
+            String host = url.getHost().toLowerCase();
+            for (String allowed : Config.PREVIEW_HOSTS) {
+                if (host.equals(allowed) || host.endsWith("." + allowed)) {
+                    return true;
+                }
+            }
+        } catch (MalformedURLException e) {
+            // not allowed
+        }
+        return false;
+    }
+
+    /**
+     * Fetches a preview, scales it down and stores it.
+     */
+    private File fetch(String previewUrl) throws IOException {
+        File thumbnail = new File(directory, hash(previewUrl) + THUMBNAIL_EXTENSION);
+        if (thumbnail.canRead()) {
+            // stored by a fetch which finished just before this one started
+            return thumbnail;
+        }
+
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(download(previewUrl)));
+        if (original == null) {
+            throw new IOException("Unsupported image format");
+        }
+
+        File temporary = File.createTempFile("preview", ".tmp", directory);
+        try {
+            if (!ImageIO.write(scale(original, Config.PREVIEW_SIZE), "jpg", temporary)) {
+                throw new IOException("No JPEG writer available");
+            }
+            Files.move(temporary.toPath(), thumbnail.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+
+        if (directorySize.addAndGet(thumbnail.length()) > Config.PREVIEW_CACHE_SIZE) {
+            evict();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Downloads a preview. Redirects are followed by hand, so that every
+     * location is checked against PREVIEW_HOSTS.
+     */
+    private byte[] download(String previewUrl) throws IOException {
+        URL url = new URL(previewUrl);
+        HttpURLConnection connection = open(url);
+        for (int redirects = 0; isRedirect(connection.getResponseCode()); redirects++) {
+            String location = connection.getHeaderField("Location");
+            connection.disconnect();
+            if (location == null || redirects == MAX_REDIRECTS) {
+                throw new IOException("Preview redirected too often or without location");
+            }
+            url = new URL(url, location);
+            if (!isAllowed(url.toString())) {
+                throw new IOException("Preview redirected to " + url);
+            }
+            connection = open(url);
+        }
+
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Preview responded with " + connection.getResponseCode());
+        }
+
+        InputStream input = connection.getInputStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+                if (bytes.size() > MAX_ORIGINAL_SIZE) {
+                    connection.disconnect();
+                    throw new IOException("Preview is larger than " + MAX_ORIGINAL_SIZE + " bytes");
+                }
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(Config.REQUEST_CONNECT_TIMEOUT);
+        connection.setReadTimeout(Config.REQUEST_READ_TIMEOUT);
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == HttpURLConnection.HTTP_SEE_OTHER || status == 307 || status == 308;
+    }
+
+    /**
+     * Scales an image to fit into a square, keeping its aspect ratio. Images
+     * are never enlarged. Transparent areas become white, as JPEG has no
+     * alpha channel.
+     */
+    private static BufferedImage scale(BufferedImage original, int size) {
+        double factor = Math.min(1.0, (double) size / Math.max(original.getWidth(), original.getHeight()));
+        int width = Math.max(1, (int) Math.round(original.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(original.getHeight() * factor));
+
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Deletes the least recently delivered thumbnails until the directory is
+     * well below its maximal size.
+     */
+    private synchronized void evict() {
+        final File[] files = directory.listFiles(THUMBNAILS);
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= Config.PREVIEW_CACHE_SIZE) {
+            directorySize.set(size);
+            return;
+        }
+
+        // read the times once, they change while sorting
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+
+        long target = (long) (Config.PREVIEW_CACHE_SIZE * EVICTION_TARGET);
+        for (int i = 0; i < order.length && size > target; i++) {
+            File thumbnail = files[order[i]];
+            long length = thumbnail.length();
+            if (thumbnail.delete()) {
+                size -= length;
+            }
+        }
+        directorySize.set(size);
+    }
+
+    private static String hash(String previewUrl) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(previewUrl.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
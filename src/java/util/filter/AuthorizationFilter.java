@@ -15,15 +15,15 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import cgwap.data_access.UserDatabaseAccess;
-import cgwap.entities.User;
 import cgwap.util.exception_handler.ApplicationException;
 import cgwap.util.file_loader.CSSLoaderServlet;
+import cgwap.util.session.Principal;
 import cgwap.util.session.SessionBean;
 
 /**
  * Filter managing the access to the facelets with the help of the userId stored
- * in the session.
+ * in the session. The user is not read on every request, but kept as a
+ * {@link Principal} in the session.
  * 
  */
 public class AuthorizationFilter implements Filter {
@@ -71,11 +71,10 @@ public class AuthorizationFilter implements Filter {
             // get current user
             Object sessionUserId = request.getSession().getAttribute(SessionBean.SESSION_USER_KEY);
 
-            User user = null;
+            Principal principal = null;
             if (sessionUserId != null && sessionUserId instanceof Integer) {
-                user = new User((int) sessionUserId);
                 try {
-                    user = UserDatabaseAccess.getById(user);
+                    principal = SessionBean.getPrincipal(request.getSession(), (int) sessionUserId);
                 } catch (ApplicationException e) {
                     response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                     request.getRequestDispatcher("/error/500.html").forward(request, response);
@@ -86,7 +85,7 @@ public class AuthorizationFilter implements Filter {
             // 2nd auth check: dependent on rights
             // *************************************************
 
-            if (user != null) { // logged in
+            if (principal != null && principal.isActive()) { // logged in
                 valid = valid || (accessedFolder.equals("members"));
 
             }
@@ -1,14 +1,20 @@
 package cgwap.util.i18n;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.MissingResourceException;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.faces.context.FacesContext;
 
 /**
  * Provides overloaded methods to return strings out of the resource bundle in the current language.
  * 
+ * The messages of a locale are read and compiled once, the ones of the supported locales at
+ * startup; messages without parameters are formatted at that time already.
  * 
  */
 public class StringProvider {
@@ -18,6 +24,27 @@ public class StringProvider {
      */
     private static final String RESOURCE_BUNDLE_NAME = "cgwap.util.i18n.messages";
 
+    /**
+     * Key of the message shown for unknown keys.
+     */
+    private static final String KEY_NOT_FOUND = "keyNotFound";
+
+    /**
+     * Locales supported in faces-config.
+     */
+    private static final Locale[] SUPPORTED_LOCALES = { Locale.ENGLISH, Locale.GERMAN };
+
+    private static final ConcurrentMap<Locale, Map<String, Message>> MESSAGES = new ConcurrentHashMap<Locale, Map<String, Message>>();
+
+    /**
+     * Compiles the messages of the supported locales.
+     */
+    public static void startup() {
+        for (Locale locale : SUPPORTED_LOCALES) {
+            getMessages(locale);
+        }
+    }
+
     /**
      * Returns the internationalized string associated with a specified key in the systems
      * message.properties file. The string can contain place holders, which will be replaced by the
@@ -29,23 +56,13 @@ public class StringProvider {
      * @return string associated with key or default error string
      */
     public static String getString(String key, FacesContext context, String... params) {
-        Locale locale = context.getViewRoot().getLocale();
-
-        String text;
-        ResourceBundle bundle = ResourceBundle.getBundle(RESOURCE_BUNDLE_NAME, locale, new UTF8Control());
-
-        try {
-            text = bundle.getString(key);
-        } catch (MissingResourceException e) {
-            text = bundle.getString("keyNotFound");
+        Map<String, Message> messages = getMessages(context.getViewRoot().getLocale());
 
-            params = new String[] { key };
+        Message message = messages.get(key);
+        if (message == null) {
+            return messages.get(KEY_NOT_FOUND).format(new String[] { key });
         }
-
-        MessageFormat mf = new MessageFormat(text, locale);
-        text = mf.format(params, new StringBuffer(), null).toString();
-
-        return text;
+        return message.format(params);
     }
 
     /**
@@ -62,4 +79,55 @@ public class StringProvider {
         FacesContext context = FacesContext.getCurrentInstance();
         return getString(key, context, params);
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the compiled messages of a locale, compiling them on first use.
+     */
+    private static Map<String, Message> getMessages(Locale locale) {
+        Map<String, Message> messages = MESSAGES.get(locale);
+        if (messages == null) {
+            messages = compile(locale);
+            Map<String, Message> compiled = MESSAGES.putIfAbsent(locale, messages);
+            if (compiled != null) {
+                messages = compiled;
+            }
+        }
+        return messages;
+    }
+
+    private static Map<String, Message> compile(Locale locale) {
+        ResourceBundle bundle = ResourceBundle.getBundle(RESOURCE_BUNDLE_NAME, locale, new UTF8Control());
+
+        Map<String, Message> messages = new HashMap<String, Message>();
+        for (String key : bundle.keySet()) {
+            messages.put(key, new Message(bundle.getString(key), locale));
+        }
+        return Collections.unmodifiableMap(messages);
+    }
+
+    /**
+     * A message pattern parsed once.
+     */
+    private static class Message {
+
+        private final MessageFormat format;
+
+        // the message formatted without parameters
+        private final String plain;
+
+        Message(String pattern, Locale locale) {
+            this.format = new MessageFormat(pattern, locale);
+            this.plain = format.format(new Object[0]);
+        }
+
+        String format(Object[] params) {
+            if (params == null || params.length == 0) {
+                return plain;
+            }
+            // a MessageFormat must not be used by several threads at once
+            synchronized (format) {
+                return format.format(params);
+            }
+        }
+    }
+}
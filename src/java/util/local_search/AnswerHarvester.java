@@ -0,0 +1,93 @@
+package cgwap.util.local_search;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cgwap.data_access.AnswersDatabaseAccess;
+import cgwap.entities.Result;
+import cgwap.util.Config;
+import cgwap.util.europeana.EuropeanaClient;
+import cgwap.util.europeana.RequestQuota;
+import cgwap.util.europeana.RequestQuota.Priority;
+import cgwap.util.europeana.SearchResultParser;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Fetches the records referenced by answers which are not indexed yet, so the
+ * correct answers can be found in the local search index. Records are fetched
+ * one by one with background priority; when the request quota leaves no room,
+ * the harvester waits.
+ * 
+ */
+final class AnswerHarvester implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(AnswerHarvester.class.getName());
+
+    private static final long QUOTA_RETRY_MILLIS = 1000;
+
+    private final LocalSearchIndex index;
+    private final EuropeanaClient client;
+    private final RequestQuota quota;
+
+    AnswerHarvester(LocalSearchIndex index, EuropeanaClient client, RequestQuota quota) {
+        this.index = index;
+        this.client = client;
+        this.quota = quota;
+    }
+
+    @Override
+    public void run() {
+        List<String> recordIds;
+        try {
+            recordIds = AnswersDatabaseAccess.getRecordIds();
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the record ids of the answers.", e);
+            return;
+        }
+
+        int harvested = 0;
+        int failed = 0;
+        try {
+            for (String recordId : recordIds) {
+                if (index.contains(recordId)) {
+                    continue;
+                }
+                while (!quota.acquire(RequestQuota.NO_USER, Priority.BACKGROUND)) {
+                    TimeUnit.MILLISECONDS.sleep(QUOTA_RETRY_MILLIS);
+                }
+                try {
+                    List<Result> results = client.get(parameters(recordId), new SearchResultParser(1));
+                    if (results != null && !results.isEmpty()) {
+                        index.add(results.get(0), null);
+                        harvested++;
+                    } else {
+                        failed++;
+                    }
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to harvest " + recordId, e);
+                    failed++;
+                }
+            }
+        } catch (InterruptedException | InterruptedIOException e) {
+            // stopped at shutdown, the rest is harvested on the next startup
+        }
+        LOGGER.info("Harvested " + harvested + " answer records, " + failed + " failed.");
+    }
+
+    private static String parameters(String recordId) {
+        try {
+            return Config.REQUEST_ROWS + Config.REQUEST_QUERY
+                    + URLEncoder.encode("europeana_id:\"" + recordId + "\"", "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
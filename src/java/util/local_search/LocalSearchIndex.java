@@ -0,0 +1,537 @@
+package cgwap.util.local_search;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+import cgwap.util.europeana.EuropeanaClient;
+import cgwap.util.europeana.RecordIds;
+import cgwap.util.europeana.RequestQuota;
+import cgwap.util.europeana.SearchKey;
+
+/**
+ * Searches the Europeana records seen so far without asking Europeana: the
+ * results of all searches sent to Europeana and the records referenced by
+ * answers. The index is used when Europeana is slow or the request quota is
+ * exhausted, so the game can go on.
+ *
+ * Records are indexed by the terms of their title and of the query they were
+ * found by, and ranked with BM25. New records are added to a segment in
+ * memory; full segments are written to files, which are mapped into memory
+ * and merged when there are too many of them. The file 'segments' in the
+ * index directory lists the segments in use.
+ *
+ * Country and language filters cannot be applied, as the records do not
+ * contain them; the type filter is.
+ *
+ */
+public class LocalSearchIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(LocalSearchIndex.class.getName());
+
+    private static final String MANIFEST = "segments";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".idx";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static LocalSearchIndex instance;
+
+    private final File directory;
+    private final int flushSize;
+    private final int maxSegments;
+    private final ExecutorService writer;
+    private final ExecutorService harvester;
+
+    // record ids of all indexed records
+    private final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // replaced as a whole, so searches see a consistent set of segments
+    private volatile State state = new State(Collections.<Segment> emptyList(), new MemorySegment());
+
+    // guards changes of the state
+    private final Object lock = new Object();
+    // serializes writing the segment files, which may take a while
+    private final Object fileLock = new Object();
+    private int nextSegment = 0;
+
+    /**
+     * Creates an index and loads the segments listed in the directory.
+     *
+     * @param directory
+     *            the directory of the segment files, null to keep the index in
+     *            memory only
+     * @param flushSize
+     *            number of records after which a segment is written
+     * @param maxSegments
+     *            number of segment files after which they are merged
+     * @throws IOException
+     *             Thrown if the directory cannot be created or read.
+     */
+    public LocalSearchIndex(File directory, int flushSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.flushSize = flushSize;
+        this.maxSegments = maxSegments;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("local-search-writer-%d")
+                .build());
+        this.harvester = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("local-search-harvester-%d")
+                .build());
+
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory);
+            }
+            load();
+        }
+    }
+
+    /**
+     * Creates the default index from the config and starts to harvest the
+     * records referenced by answers. If the index directory cannot be used,
+     * the index is kept in memory only.
+     */
+    public static synchronized void startup() {
+        File directory = new File(Config.SEARCH_INDEX_LOCATION);
+        try {
+            instance = new LocalSearchIndex(directory, Config.SEARCH_INDEX_FLUSH_SIZE,
+                    Config.SEARCH_INDEX_MAX_SEGMENTS);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the local search index, keeping it in memory only.", e);
+            try {
+                instance = new LocalSearchIndex(null, Config.SEARCH_INDEX_FLUSH_SIZE,
+                        Config.SEARCH_INDEX_MAX_SEGMENTS);
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+        }
+        instance.harvester.execute(new AnswerHarvester(instance, EuropeanaClient.getInstance(),
+                RequestQuota.getInstance()));
+    }
+
+    /**
+     * Stops harvesting and writes the records added since the last segment.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.harvester.shutdownNow();
+            instance.writer.shutdown();
+            try {
+                instance.writer.awaitTermination(10, TimeUnit.SECONDS);
+                instance.flush();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write the local search index.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            LOGGER.info("Local search index: " + instance);
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the default index.
+     *
+     * @return the index configured from the config
+     */
+    public static synchronized LocalSearchIndex getInstance() {
+        if (instance == null) {
+            startup();
+        }
+        return instance;
+    }
+
+    /**
+     * Indexes the results of a search. Records indexed already are skipped.
+     *
+     * @param results
+     *            the results
+     * @param query
+     *            the query the results were found by
+     */
+    public void addAll(List<Result> results, String query) {
+        for (Result result : results) {
+            add(result, query);
+        }
+    }
+
+    /**
+     * Indexes a record, unless it is indexed already.
+     *
+     * @param result
+     *            the record
+     * @param text
+     *            the text to index besides the title, may be null
+     */
+    public void add(Result result, String text) {
+        String id = RecordIds.canonicalize(result.getId());
+        if (id == null || !ids.add(id)) {
+            return;
+        }
+
+        synchronized (lock) {
+            MemorySegment live = state.live;
+            live.add(result, text);
+            if (directory != null && live.size() >= flushSize) {
+                final MemorySegment full = live;
+                state = state.seal();
+                writer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            write(full);
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Failed to write a segment of the local search index.", e);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Returns whether a record is indexed.
+     *
+     * @param recordId
+     *            the canonical record id
+     * @return true if it is
+     */
+    public boolean contains(String recordId) {
+        return ids.contains(recordId);
+    }
+
+    /**
+     * Returns the number of indexed records.
+     *
+     * @return the number of records
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Searches the index.
+     *
+     * @param key
+     *            the search, its page selects the results to return
+     * @param limit
+     *            number of results per page
+     * @return the results of the page, best first; empty if none match
+     */
+    public List<Result> search(SearchKey key, int limit) {
+        List<String> terms = new ArrayList<String>(new LinkedHashSet<String>(Tokenizer.tokenizeQuery(key
+                .getQuery())));
+        List<Segment> segments = state.all();
+
+        long documents = 0;
+        long totalLength = 0;
+        for (Segment segment : segments) {
+            documents += segment.size();
+            totalLength += segment.totalLength();
+        }
+        if (terms.isEmpty() || documents == 0) {
+            return Collections.emptyList();
+        }
+        double averageLength = (double) totalLength / documents;
+
+        // document frequencies over all segments
+        Postings[][] postings = new Postings[segments.size()][terms.size()];
+        int[] frequencies = new int[terms.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            for (int j = 0; j < terms.size(); j++) {
+                postings[i][j] = segments.get(i).postings(terms.get(j));
+                if (postings[i][j] != null) {
+                    frequencies[j] += postings[i][j].size();
+                }
+            }
+        }
+
+        int wanted = (key.getPage() + 1) * limit;
+        PriorityQueue<Hit> best = new PriorityQueue<Hit>(wanted + 1, Hit.BY_SCORE);
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            Map<Integer, Double> scores = new HashMap<Integer, Double>();
+            for (int j = 0; j < terms.size(); j++) {
+                Postings termPostings = postings[i][j];
+                if (termPostings == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documents - frequencies[j] + 0.5) / (frequencies[j] + 0.5));
+                for (int k = 0; k < termPostings.size(); k++) {
+                    int document = termPostings.documents[k];
+                    int frequency = termPostings.frequencies[k];
+                    double norm = K1 * (1 - B + B * segment.length(document) / averageLength);
+                    double score = idf * frequency * (K1 + 1) / (frequency + norm);
+                    Double sum = scores.get(document);
+                    scores.put(document, sum == null ? score : sum + score);
+                }
+            }
+
+            for (Map.Entry<Integer, Double> score : scores.entrySet()) {
+                if (key.getType() != null && !key.getType().equals(segment.type(score.getKey()))) {
+                    continue;
+                }
+                best.add(new Hit(segment, score.getKey(), score.getValue()));
+                if (best.size() > wanted) {
+                    best.poll();
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<Hit>(best);
+        Collections.sort(hits, Collections.reverseOrder(Hit.BY_SCORE));
+        List<Result> results = new ArrayList<Result>();
+        for (int i = key.getPage() * limit; i < hits.size(); i++) {
+            results.add(hits.get(i).segment.document(hits.get(i).document));
+        }
+        return results;
+    }
+
+    /**
+     * Writes the records added since the last segment to a segment file.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        MemorySegment full;
+        synchronized (lock) {
+            full = state.live;
+            if (full.size() == 0) {
+                return;
+            }
+            state = state.seal();
+        }
+        write(full);
+    }
+
+    /**
+     * Writes a sealed segment to a file and replaces it by the mapped file.
+     * When there are too many segment files, they are merged into one.
+     */
+    private void write(MemorySegment sealed) throws IOException {
+        synchronized (fileLock) {
+            MappedSegment mapped = writeSegment(sealed);
+            synchronized (lock) {
+                state = state.replace(Collections.<Segment> singletonList(sealed), mapped);
+            }
+
+            List<Segment> files = state.mapped();
+            if (files.size() > maxSegments) {
+                MemorySegment merged = new MemorySegment();
+                for (Segment segment : files) {
+                    merged.addAll(segment);
+                }
+                MappedSegment replacement = writeSegment(merged);
+                synchronized (lock) {
+                    state = state.replace(files, replacement);
+                }
+                writeManifest();
+                for (Segment segment : files) {
+                    // on some systems mapped files cannot be deleted, they are
+                    // removed on the next startup then
+                    Files.deleteIfExists(((MappedSegment) segment).getFile().toPath());
+                }
+            } else {
+                writeManifest();
+            }
+        }
+    }
+
+    private MappedSegment writeSegment(Segment segment) throws IOException {
+        File file = new File(directory, SEGMENT_PREFIX + nextSegment++ + SEGMENT_SUFFIX);
+        MappedSegment.write(file, segment);
+        return new MappedSegment(file);
+    }
+
+    private void writeManifest() throws IOException {
+        File temporary = File.createTempFile(MANIFEST, ".tmp", directory);
+        try {
+            try (Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), UTF_8))) {
+                for (Segment segment : state.mapped()) {
+                    output.write(((MappedSegment) segment).getFile().getName());
+                    output.write('\n');
+                }
+            }
+            Files.move(temporary.toPath(), new File(directory, MANIFEST).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    /**
+     * Maps the segments listed in the manifest and removes all other files,
+     * e.g. segments replaced by a merge or left behind by a crash.
+     */
+    private void load() throws IOException {
+        Set<String> listed = new LinkedHashSet<String>();
+        File manifest = new File(directory, MANIFEST);
+        if (manifest.isFile()) {
+            try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(manifest),
+                    UTF_8))) {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        listed.add(line.trim());
+                    }
+                }
+            }
+        }
+
+        List<Segment> segments = new ArrayList<Segment>();
+        for (String name : listed) {
+            MappedSegment segment = new MappedSegment(new File(directory, name));
+            for (int i = 0; i < segment.size(); i++) {
+                String id = RecordIds.canonicalize(segment.id(i));
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+            segments.add(segment);
+        }
+        state = new State(segments, new MemorySegment());
+
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length()
+                            - SEGMENT_SUFFIX.length()));
+                    nextSegment = Math.max(nextSegment, number + 1);
+                } catch (NumberFormatException e) {
+                    // not written by the index
+                }
+            }
+            if (!listed.contains(name) && !name.equals(MANIFEST) && name.endsWith(SEGMENT_SUFFIX)
+                    || name.endsWith(".tmp")) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        State current = state;
+        return "records=" + ids.size() + ", segments=" + current.segments.size() + ", live="
+                + current.live.size();
+    }
+
+    /**
+     * The segments of the index at a point in time. Sealed segments in memory
+     * are searched until they have been written to a file.
+     */
+    private static final class State {
+
+        final List<Segment> segments;
+        final MemorySegment live;
+
+        State(List<Segment> segments, MemorySegment live) {
+            this.segments = Collections.unmodifiableList(segments);
+            this.live = live;
+        }
+
+        List<Segment> all() {
+            List<Segment> all = new ArrayList<Segment>(segments);
+            all.add(live);
+            return all;
+        }
+
+        List<Segment> mapped() {
+            List<Segment> mapped = new ArrayList<Segment>();
+            for (Segment segment : segments) {
+                if (segment instanceof MappedSegment) {
+                    mapped.add(segment);
+                }
+            }
+            return mapped;
+        }
+
+        /**
+         * Keeps the live segment as it is and starts a new one.
+         */
+        State seal() {
+            List<Segment> sealed = new ArrayList<Segment>(segments);
+            sealed.add(live);
+            return new State(sealed, new MemorySegment());
+        }
+
+        /**
+         * Replaces segments by one that contains all their records.
+         */
+        State replace(List<Segment> replaced, Segment replacement) {
+            List<Segment> replacedSegments = new ArrayList<Segment>();
+            boolean added = false;
+            for (Segment segment : segments) {
+                if (!replaced.contains(segment)) {
+                    replacedSegments.add(segment);
+                } else if (!added) {
+                    replacedSegments.add(replacement);
+                    added = true;
+                }
+            }
+            return new State(replacedSegments, live);
+        }
+    }
+
+    /**
+     * A scored document of a segment.
+     */
+    private static final class Hit {
+
+        static final Comparator<Hit> BY_SCORE = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit a, Hit b) {
+                return Double.compare(a.score, b.score);
+            }
+        };
+
+        final Segment segment;
+        final int document;
+        final double score;
+
+        Hit(Segment segment, int document, double score) {
+            this.segment = segment;
+            this.document = document;
+            this.score = score;
+        }
+    }
+}
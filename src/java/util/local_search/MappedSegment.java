@@ -0,0 +1,306 @@
+package cgwap.util.local_search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+import cgwap.entities.Result;
+
+/**
+ * A segment stored in a file, which is mapped into memory. Segments are
+ * written once and never changed, so they can be read by any number of
+ * threads.
+ * 
+ * The file starts with a header, followed by the offsets of the documents and
+ * of the terms, the documents and the terms with their postings:
+ * 
+ * <pre>
+ * header    MAGIC VERSION documentCount:int totalLength:long termCount:int
+ * offsets   documentOffset:int * documentCount  termOffset:int * termCount
+ * document  length:int id title preview type
+ * term      term postingCount:int (document:int frequency:int) * postingCount
+ * </pre>
+ * 
+ * Strings are stored as their length in bytes followed by their UTF-8 bytes; a
+ * length of -1 stands for null. Terms are sorted, so they are looked up by
+ * binary search.
+ * 
+ */
+final class MappedSegment extends Segment {
+
+    private static final int MAGIC = 0x43475349;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int documentCount;
+    private final long totalLength;
+    private final int termCount;
+
+    /**
+     * Maps a segment file.
+     * 
+     * @param file
+     *            the file
+     * @throws IOException
+     *             Thrown if the file cannot be read or is no segment.
+     */
+    MappedSegment(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            // the mapping stays valid after the file is closed
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is no index segment.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+        }
+        documentCount = buffer.getInt(8);
+        totalLength = buffer.getLong(12);
+        termCount = buffer.getInt(20);
+    }
+
+    /**
+     * Writes a segment to a file. The file is written under a temporary name
+     * and moved when complete, so readers never see a partial segment.
+     * 
+     * @param file
+     *            the file to write
+     * @param segment
+     *            the segment to write
+     * @throws IOException
+     */
+    static void write(File file, Segment segment) throws IOException {
+        int documentCount = segment.size();
+
+        ByteArrayOutputStream documentBytes = new ByteArrayOutputStream();
+        DataOutputStream documents = new DataOutputStream(documentBytes);
+        int[] documentOffsets = new int[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            documentOffsets[i] = documents.size();
+            Result result = segment.document(i);
+            documents.writeInt(segment.length(i));
+            writeString(documents, result.getId());
+            writeString(documents, result.getTitle());
+            writeString(documents, result.getPreview());
+            writeString(documents, segment.type(i));
+        }
+
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        DataOutputStream terms = new DataOutputStream(termBytes);
+        IntList termOffsets = new IntList();
+        for (String term : segment.terms()) {
+            termOffsets.add(terms.size());
+            Postings postings = segment.postings(term);
+            writeString(terms, term);
+            terms.writeInt(postings.size());
+            for (int i = 0; i < postings.size(); i++) {
+                terms.writeInt(postings.documents[i]);
+                terms.writeInt(postings.frequencies[i]);
+            }
+        }
+
+        int documentsStart = HEADER_SIZE + (documentCount + termOffsets.size()) * 4;
+        int termsStart = documentsStart + documents.size();
+
+        File temporary = File.createTempFile("segment", ".tmp", file.getParentFile());
+        try {
+            writeFile(temporary, documentCount, segment.totalLength(), documentsStart, documentOffsets, termsStart,
+                    termOffsets, documentBytes, termBytes);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static void writeFile(File file, int documentCount, long totalLength, int documentsStart,
+            int[] documentOffsets, int termsStart, IntList termOffsets, ByteArrayOutputStream documentBytes,
+            ByteArrayOutputStream termBytes) throws IOException {
+        try (OutputStream stream = new FileOutputStream(file)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(documentCount);
+            output.writeLong(totalLength);
+            output.writeInt(termOffsets.size());
+            for (int offset : documentOffsets) {
+                output.writeInt(documentsStart + offset);
+            }
+            for (int i = 0; i < termOffsets.size(); i++) {
+                output.writeInt(termsStart + termOffsets.get(i));
+            }
+            documentBytes.writeTo(output);
+            termBytes.writeTo(output);
+            output.flush();
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    int size() {
+        return documentCount;
+    }
+
+    @Override
+    long totalLength() {
+        return totalLength;
+    }
+
+    @Override
+    int length(int document) {
+        return buffer.getInt(documentOffset(document));
+    }
+
+    @Override
+    String id(int document) {
+        return readString(documentOffset(document) + 4);
+    }
+
+    @Override
+    String type(int document) {
+        int position = documentOffset(document) + 4;
+        for (int i = 0; i < 3; i++) {
+            position = skipString(position);
+        }
+        return readString(position);
+    }
+
+    @Override
+    Result document(int document) {
+        int position = documentOffset(document) + 4;
+        String id = readString(position);
+        position = skipString(position);
+        String title = readString(position);
+        position = skipString(position);
+        String preview = readString(position);
+        position = skipString(position);
+        return toResult(id, title, preview, readString(position));
+    }
+
+    @Override
+    Postings postings(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = termOffset(middle);
+            int comparison = readString(position).compareTo(term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return readPostings(skipString(position));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    Iterable<String> terms() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return readString(termOffset(index));
+            }
+
+            @Override
+            public int size() {
+                return termCount;
+            }
+        };
+    }
+
+    private int documentOffset(int document) {
+        return buffer.getInt(HEADER_SIZE + document * 4);
+    }
+
+    private int termOffset(int term) {
+        return buffer.getInt(HEADER_SIZE + (documentCount + term) * 4);
+    }
+
+    private Postings readPostings(int position) {
+        int count = buffer.getInt(position);
+        int[] documents = new int[count];
+        int[] frequencies = new int[count];
+        position += 4;
+        for (int i = 0; i < count; i++) {
+            documents[i] = buffer.getInt(position);
+            frequencies[i] = buffer.getInt(position + 4);
+            position += 8;
+        }
+        return new Postings(documents, frequencies);
+    }
+
+    private String readString(int position) {
+        int length = buffer.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        // a view of its own, the position of the shared buffer is never moved
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + 4);
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private int skipString(int position) {
+        return position + 4 + Math.max(buffer.getInt(position), 0);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * A growing list of ints.
+     */
+    private static final class IntList {
+
+        private int[] values = new int[64];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package cgwap.util.local_search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import cgwap.entities.Result;
+
+/**
+ * A segment held in memory, which documents are added to. Added documents can
+ * be searched at once; when the segment is full, it is written to a
+ * {@link MappedSegment}.
+ * 
+ */
+final class MemorySegment extends Segment {
+
+    private final List<Result> documents = new ArrayList<Result>();
+    private final List<Integer> lengths = new ArrayList<Integer>();
+    private final Map<String, int[]> postings = new HashMap<String, int[]>();
+    // number of postings used in each array of postings
+    private final Map<String, Integer> postingCounts = new HashMap<String, Integer>();
+    private long totalLength = 0;
+
+    /**
+     * Indexes a search result.
+     * 
+     * @param result
+     *            the result
+     * @param text
+     *            the text to index besides the title, e.g. the query the
+     *            result was found by
+     * @return the number of the document
+     */
+    synchronized int add(Result result, String text) {
+        List<String> terms = Tokenizer.tokenize(result.getTitle());
+        terms.addAll(Tokenizer.tokenize(text));
+
+        Map<String, Integer> frequencies = new HashMap<String, Integer>();
+        for (String term : terms) {
+            Integer frequency = frequencies.get(term);
+            frequencies.put(term, frequency == null ? 1 : frequency + 1);
+        }
+
+        int document = addDocument(result, terms.size());
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            addPosting(entry.getKey(), document, entry.getValue());
+        }
+        return document;
+    }
+
+    /**
+     * Adds a document without postings, used to copy segments.
+     */
+    synchronized int addDocument(Result result, int length) {
+        documents.add(result);
+        lengths.add(length);
+        totalLength += length;
+        return documents.size() - 1;
+    }
+
+    /**
+     * Appends a posting. Documents have to be added in ascending order per
+     * term.
+     */
+    synchronized void addPosting(String term, int document, int frequency) {
+        int[] pairs = postings.get(term);
+        Integer count = postingCounts.get(term);
+        int used = count == null ? 0 : count;
+        if (pairs == null) {
+            pairs = new int[4];
+        } else if (pairs.length < (used + 1) * 2) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[used * 2] = document;
+        pairs[used * 2 + 1] = frequency;
+        postings.put(term, pairs);
+        postingCounts.put(term, used + 1);
+    }
+
+    /**
+     * Copies all documents and postings of another segment into this one.
+     */
+    synchronized void addAll(Segment segment) {
+        int offset = documents.size();
+        for (int i = 0; i < segment.size(); i++) {
+            addDocument(segment.document(i), segment.length(i));
+        }
+        for (String term : segment.terms()) {
+            Postings source = segment.postings(term);
+            for (int i = 0; i < source.size(); i++) {
+                addPosting(term, offset + source.documents[i], source.frequencies[i]);
+            }
+        }
+    }
+
+    @Override
+    synchronized int size() {
+        return documents.size();
+    }
+
+    @Override
+    synchronized long totalLength() {
+        return totalLength;
+    }
+
+    @Override
+    synchronized int length(int document) {
+        return lengths.get(document);
+    }
+
+    @Override
+    synchronized String id(int document) {
+        return documents.get(document).getId();
+    }
+
+    @Override
+    synchronized String type(int document) {
+        return typeOf(documents.get(document));
+    }
+
+    @Override
+    synchronized Result document(int document) {
+        Result result = documents.get(document);
+        return toResult(result.getId(), result.getTitle(), result.getPreview(), typeOf(result));
+    }
+
+    @Override
+    synchronized Postings postings(String term) {
+        int[] pairs = postings.get(term);
+        if (pairs == null) {
+            return null;
+        }
+        int count = postingCounts.get(term);
+        int[] documents = new int[count];
+        int[] frequencies = new int[count];
+        for (int i = 0; i < count; i++) {
+            documents[i] = pairs[i * 2];
+            frequencies[i] = pairs[i * 2 + 1];
+        }
+        return new Postings(documents, frequencies);
+    }
+
+    @Override
+    synchronized Iterable<String> terms() {
+        return new TreeSet<String>(postings.keySet());
+    }
+}
@@ -0,0 +1,21 @@
+package cgwap.util.local_search;
+
+/**
+ * The documents of a segment containing a term, in ascending order, together
+ * with the number of occurrences of the term in each.
+ * 
+ */
+final class Postings {
+
+    final int[] documents;
+    final int[] frequencies;
+
+    Postings(int[] documents, int[] frequencies) {
+        this.documents = documents;
+        this.frequencies = frequencies;
+    }
+
+    int size() {
+        return documents.length;
+    }
+}
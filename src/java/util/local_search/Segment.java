@@ -0,0 +1,88 @@
+package cgwap.util.local_search;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+
+/**
+ * A part of the local search index. Documents are numbered from 0 within the
+ * segment; each document is a search result together with the number of terms
+ * indexed for it.
+ * 
+ */
+abstract class Segment {
+
+    /**
+     * Returns the number of documents.
+     */
+    abstract int size();
+
+    /**
+     * Returns the sum of the lengths of all documents.
+     */
+    abstract long totalLength();
+
+    /**
+     * Returns the number of terms indexed for a document.
+     */
+    abstract int length(int document);
+
+    /**
+     * Returns the record id of a document.
+     */
+    abstract String id(int document);
+
+    /**
+     * Returns the Europeana type of a document, null if it is unknown.
+     */
+    abstract String type(int document);
+
+    /**
+     * Returns a document as a new search result.
+     */
+    abstract Result document(int document);
+
+    /**
+     * Returns the postings of a term.
+     * 
+     * @param term
+     *            the term
+     * @return the postings, null if no document contains the term
+     */
+    abstract Postings postings(String term);
+
+    /**
+     * Returns all terms in ascending order.
+     */
+    abstract Iterable<String> terms();
+
+    /**
+     * Returns the Europeana type of a result.
+     */
+    static String typeOf(Result result) {
+        if (result.isImage()) {
+            return Config.TYPE_IMAGE;
+        } else if (result.isText()) {
+            return Config.TYPE_TEXT;
+        } else if (result.isVideo()) {
+            return Config.TYPE_VIDEO;
+        } else if (result.isSound()) {
+            return Config.TYPE_SOUND;
+        }
+        return null;
+    }
+
+    /**
+     * Builds a result from the stored fields of a document.
+     */
+    static Result toResult(String id, String title, String preview, String type) {
+        Result result = new Result(title, preview);
+        result.setId(id);
+        if (type != null) {
+            result.setImage(type.equals(Config.TYPE_IMAGE));
+            result.setText(type.equals(Config.TYPE_TEXT));
+            result.setVideo(type.equals(Config.TYPE_VIDEO));
+            result.setSound(type.equals(Config.TYPE_SOUND));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package cgwap.util.local_search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into the terms of the local search index: runs of letters and
+ * digits, lower cased, of at least two characters.
+ * 
+ */
+final class Tokenizer {
+
+    private static final int MIN_LENGTH = 2;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Splits a text into terms.
+     * 
+     * @param text
+     *            the text, may be null
+     * @return the terms in order, including repetitions
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean partOfTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (partOfTerm && start < 0) {
+                start = i;
+            } else if (!partOfTerm && start >= 0) {
+                if (i - start >= MIN_LENGTH) {
+                    terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Splits a Europeana query into terms. The operators AND and OR are
+     * dropped, as well as terms excluded by NOT.
+     * 
+     * @param query
+     *            the query
+     * @return the terms in order
+     */
+    static List<String> tokenizeQuery(String query) {
+        List<String> terms = new ArrayList<String>();
+        if (query == null) {
+            return terms;
+        }
+
+        boolean excluded = false;
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("AND") || word.equals("OR")) {
+                continue;
+            }
+            if (word.equals("NOT")) {
+                excluded = true;
+                continue;
+            }
+            if (!excluded) {
+                terms.addAll(tokenize(word));
+            }
+            excluded = false;
+        }
+        return terms;
+    }
+}
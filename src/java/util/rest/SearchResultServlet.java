@@ -0,0 +1,109 @@
+package cgwap.util.rest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import cgwap.entities.Result;
+import cgwap.util.Config;
+import cgwap.util.session.SessionBean;
+
+/**
+ * Reports the state of a search running in the background as JSON. The page
+ * polls this servlet with the search's ticket until the status is no longer
+ * "pending"; a finished search also contains its results. The search stays
+ * pending in the session until the page collects it.
+ * 
+ */
+@WebServlet("/rest/search")
+public class SearchResultServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2431379086718245163L;
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        Future<List<Result>> search = null;
+
+        // only logged in users have pending searches
+        HttpSession session = request.getSession(false);
+        if (session != null && session.getAttribute(SessionBean.SESSION_USER_KEY) instanceof Integer) {
+            search = SessionBean.getPendingSearches(session).get(request.getParameter("ticket"));
+        }
+
+        response.setContentType("application/json; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+
+        JsonGenerator json = FACTORY.createJsonGenerator(response.getWriter());
+        try {
+            json.writeStartObject();
+            if (search == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                json.writeStringField("status", "unknown");
+            } else if (!search.isDone()) {
+                json.writeStringField("status", "pending");
+            } else {
+                writeResults(json, search);
+            }
+            json.writeEndObject();
+        } finally {
+            json.close();
+        }
+    }
+
+    private void writeResults(JsonGenerator json, Future<List<Result>> search) throws IOException {
+        List<Result> results;
+        try {
+            results = search.get();
+        } catch (ExecutionException | CancellationException e) {
+            json.writeStringField("status", "failed");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            json.writeStringField("status", "failed");
+            return;
+        }
+
+        json.writeStringField("status", "done");
+        json.writeArrayFieldStart("results");
+        for (Result result : results) {
+            json.writeStartObject();
+            json.writeStringField("id", result.getId());
+            json.writeStringField("title", result.getTitle());
+            json.writeStringField("preview", result.getPreview());
+            json.writeStringField("type", getType(result));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private String getType(Result result) {
+        if (result.isImage()) {
+            return Config.TYPE_IMAGE;
+        } else if (result.isText()) {
+            return Config.TYPE_TEXT;
+        } else if (result.isVideo()) {
+            return Config.TYPE_VIDEO;
+        } else if (result.isSound()) {
+            return Config.TYPE_SOUND;
+        }
+        return null;
+    }
+}
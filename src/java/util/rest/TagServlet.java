@@ -0,0 +1,81 @@
+package cgwap.util.rest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import cgwap.data_access.TagCatalog;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Suggests tags starting with the given prefix as a JSON array, for the
+ * autocompletion of tag fields. The tags are looked up in the
+ * {@link TagCatalog}, the database is not queried per request.
+ * 
+ */
+@WebServlet("/rest/tags")
+public class TagServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 4861079553148120327L;
+
+    private static final Logger LOGGER = Logger.getLogger(TagServlet.class.getName());
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final int DEFAULT_LIMIT = 10;
+
+    private static final int MAX_LIMIT = 50;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        List<String> tags;
+        try {
+            tags = TagCatalog.getInstance().complete(request.getParameter("prefix"), getLimit(request));
+        } catch (ApplicationException e) {
+            LOGGER.log(Level.WARNING, "Failed to suggest tags.", e);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        response.setContentType("application/json; charset=UTF-8");
+        // the tags change rarely, a briefly outdated suggestion does no harm
+        response.setHeader("Cache-Control", "public, max-age=60");
+
+        JsonGenerator json = FACTORY.createJsonGenerator(response.getWriter());
+        try {
+            json.writeStartArray();
+            for (String tag : tags) {
+                json.writeString(tag);
+            }
+            json.writeEndArray();
+        } finally {
+            json.close();
+        }
+    }
+
+    private int getLimit(HttpServletRequest request) {
+        String limit = request.getParameter("limit");
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(0, Math.min(MAX_LIMIT, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cgwap.util.selection;
+
+import java.util.Random;
+
+/**
+ * Draws indexes at random with given weights in constant time, following
+ * Walker's alias method: every slot holds the probability of its own index
+ * and an alias index that is drawn otherwise. Building the table takes linear
+ * time; a table is never changed afterwards, so it can be shared by threads.
+ * 
+ */
+public class AliasTable {
+
+    private final double[] probability;
+
+    private final int[] alias;
+
+    /**
+     * Builds a table.
+     * 
+     * @param weights
+     *            the non-negative weights of the indexes, at least one of
+     *            them positive
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        probability = new double[n];
+        alias = new int[n];
+
+        double sum = 0;
+        for (double weight : weights) {
+            sum += weight;
+        }
+        if (n == 0 || !(sum > 0)) {
+            throw new IllegalArgumentException("No positive weight given.");
+        }
+
+        // scale to an average of 1 and split into slots below and above it
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        // fill up every small slot with the excess of a large one
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // the remaining slots are full, up to rounding errors
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1;
+        }
+    }
+
+    /**
+     * Draws an index.
+     * 
+     * @param random
+     *            the source of randomness
+     * @return an index with a probability proportional to its weight
+     */
+    public int draw(Random random) {
+        int slot = random.nextInt(probability.length);
+        return random.nextDouble() < probability[slot] ? slot : alias[slot];
+    }
+
+    /**
+     * Returns the number of indexes.
+     * 
+     * @return the size of the table
+     */
+    public int size() {
+        return probability.length;
+    }
+}
@@ -0,0 +1,97 @@
+package cgwap.util.session;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import cgwap.entities.Result;
+
+/**
+ * Holds the searches of a session which run in the background. A search is
+ * identified by a random ticket, which is handed to the page so it can poll
+ * for the results.
+ * 
+ * The futures can not be serialized with the view state, hence they are kept
+ * in the session. They can not be serialized with the session either; when
+ * the session is persisted or replicated, the pending searches are dropped
+ * and polling for them finds no results. An instance is obtained by
+ * {@link SessionBean#getPendingSearches()}.
+ */
+public class PendingSearches implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The key under which the pending searches are stored in session.
+     */
+    public static final String SESSION_KEY = "pending-searches";
+
+    /**
+     * Maximal number of searches a session can have pending, e.g. in several
+     * browser tabs.
+     */
+    private static final int MAX_PENDING = 10;
+
+    private final transient ConcurrentMap<String, Future<List<Result>>> searches = new ConcurrentHashMap<String, Future<List<Result>>>();
+
+    /**
+     * Adds a search. If too many searches are pending, the finished ones are
+     * dropped; if none is finished, an arbitrary one is cancelled.
+     * 
+     * @param search
+     *            the future results of the search
+     * @return the ticket of the search
+     */
+    public String add(Future<List<Result>> search) {
+        if (searches.size() >= MAX_PENDING) {
+            for (Iterator<Future<List<Result>>> searched = searches.values().iterator(); searched.hasNext();) {
+                if (searched.next().isDone()) {
+                    searched.remove();
+                }
+            }
+        }
+        if (searches.size() >= MAX_PENDING) {
+            Iterator<Future<List<Result>>> pending = searches.values().iterator();
+            pending.next().cancel(true);
+            pending.remove();
+        }
+
+        String ticket = UUID.randomUUID().toString();
+        searches.put(ticket, search);
+        return ticket;
+    }
+
+    /**
+     * Returns a search.
+     * 
+     * @param ticket
+     *            the ticket of the search
+     * @return the future results, null if the ticket is unknown
+     */
+    public Future<List<Result>> get(String ticket) {
+        return ticket == null ? null : searches.get(ticket);
+    }
+
+    /**
+     * Removes a search.
+     * 
+     * @param ticket
+     *            the ticket of the search
+     * @return the future results, null if the ticket is unknown
+     */
+    public Future<List<Result>> remove(String ticket) {
+        return ticket == null ? null : searches.remove(ticket);
+    }
+
+    /**
+     * Replaces a deserialized instance, whose searches are lost, by an empty
+     * one.
+     */
+    private Object readResolve() {
+        return new PendingSearches();
+    }
+}
@@ -0,0 +1,78 @@
+package cgwap.util.session;
+
+import java.io.Serializable;
+
+import cgwap.entities.User;
+import cgwap.enums.UserLevel;
+
+/**
+ * The logged in user as far as authorization needs to know it. It is kept in
+ * the session, so requests are authorized without reading the user; it is
+ * read again when it is older than {@link cgwap.util.Config#PRINCIPAL_TTL} or
+ * the user has been changed meanwhile.
+ * 
+ */
+public class Principal implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+    private final boolean active;
+    private final boolean admin;
+    private final UserLevel level;
+    private final int version;
+    private final long loaded;
+
+    /**
+     * Creates a principal from a user just read.
+     * 
+     * @param user
+     *            - the user
+     * @param version
+     *            - the version of the user taken before reading it
+     */
+    public Principal(User user, int version) {
+        this.id = user.getId();
+        this.active = user.isActive();
+        this.admin = user.isAdmin();
+        this.level = user.getUserLevel();
+        this.version = version;
+        this.loaded = System.currentTimeMillis();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public UserLevel getLevel() {
+        return level;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks whether the principal still describes a user.
+     * 
+     * @param userId
+     *            - the id of the logged in user
+     * @param currentVersion
+     *            - the current version of the user
+     * @param ttlMillis
+     *            - the time a principal is trusted
+     * @return true, if it has been read for the user, the user has not been
+     *         changed since and it is not too old
+     */
+    public boolean isValid(int userId, int currentVersion, long ttlMillis) {
+        return id == userId && version == currentVersion && System.currentTimeMillis() - loaded < ttlMillis;
+    }
+}
@@ -0,0 +1,227 @@
+package cgwap.util.session;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import cgwap.data_access.QuestionCatalog;
+import cgwap.data_access.QuestionWeights;
+import cgwap.enums.UserLevel;
+import cgwap.util.Config;
+import cgwap.util.exception_handler.ApplicationException;
+
+/**
+ * Holds the ids of the questions a player may play next, so that choosing a
+ * random question does not compute them each time. The ids are taken once
+ * from the {@link QuestionCatalog} and handed out one by one, drawn by the
+ * {@link QuestionWeights} of the player's level; when only a few are left,
+ * they are taken again in the background.
+ *
+ * Questions retired by reports or deletes in the meantime are skipped. An
+ * instance is obtained by {@link SessionBean#getQuestionQueue(String)}. A
+ * refill running when the session is serialized is dropped, the queue is
+ * refilled again when it runs low.
+ */
+public class QuestionQueue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(QuestionQueue.class.getName());
+
+    /**
+     * The key under which the queue is stored in session.
+     */
+    public static final String SESSION_KEY = "question-queue";
+
+    /**
+     * Number of threads refilling queues.
+     */
+    private static final int REFILL_THREADS = 2;
+
+    /**
+     * Maximal number of refills waiting for a thread; further queues are
+     * refilled when they run empty instead.
+     */
+    private static final int REFILL_QUEUE_SIZE = 100;
+
+    private static ThreadPoolExecutor refiller;
+
+    private final int userId;
+
+    private final String tag;
+
+    private final Random random = new Random();
+
+    private BitSet ids = new BitSet();
+
+    // ids handed out already, a refill started before they were played may
+    // still contain them
+    private final BitSet handedOut = new BitSet();
+
+    private transient Future<BitSet> refill;
+
+    // the last read brought no new questions, the next one is done only when
+    // the queue has run empty
+    private boolean exhausted = false;
+
+    /**
+     * Creates an empty queue, the ids are read on the first call of
+     * {@link #next()}.
+     *
+     * @param userId
+     *            the player's id
+     * @param tag
+     *            only questions with this tag, null for all questions
+     */
+    public QuestionQueue(int userId, String tag) {
+        this.userId = userId;
+        this.tag = tag;
+    }
+
+    /**
+     * Starts the threads refilling queues.
+     */
+    public static synchronized void startup() {
+        refiller = new ThreadPoolExecutor(REFILL_THREADS, REFILL_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REFILL_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("question-queue-%d").build());
+        refiller.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops the threads refilling queues, running refills are interrupted.
+     */
+    public static synchronized void shutdown() {
+        if (refiller != null) {
+            refiller.shutdownNow();
+            refiller = null;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getRefiller() {
+        if (refiller == null) {
+            startup();
+        }
+        return refiller;
+    }
+
+    /**
+     * Checks whether the queue holds the questions for a player and tag.
+     *
+     * @param userId
+     *            the player's id
+     * @param tag
+     *            the tag, null for all questions
+     * @return true, if the queue can be used
+     */
+    public boolean isFor(int userId, String tag) {
+        return this.userId == userId && (tag == null ? this.tag == null : tag.equals(this.tag));
+    }
+
+    /**
+     * Hands out the id of the next question to play.
+     *
+     * @param level
+     *            the player's level
+     * @return the question's id, 0 if there are no questions left
+     * @throws ApplicationException
+     */
+    public synchronized int next(UserLevel level) throws ApplicationException {
+        if (refill != null && refill.isDone()) {
+            collectRefill();
+        }
+
+        Integer questionId = poll(level);
+        if (questionId == null) {
+            if (refill != null) {
+                collectRefill();
+            } else {
+                replace(QuestionCatalog.getInstance().getPlayable(userId, tag));
+            }
+            questionId = poll(level);
+        }
+
+        if (ids.cardinality() <= Config.QUESTION_QUEUE_LOW && refill == null && !exhausted) {
+            startRefill();
+        }
+
+        if (questionId == null) {
+            return 0;
+        }
+        handedOut.set(questionId);
+        return questionId;
+    }
+
+    private Integer poll(UserLevel level) {
+        QuestionCatalog catalog = QuestionCatalog.getInstance();
+        QuestionWeights weights = QuestionWeights.getInstance();
+        for (int count = ids.cardinality(); count > 0; count--) {
+            // uniformly if the weighted draws keep missing the queued ones
+            int questionId = weights.draw(level, ids, random);
+            if (questionId < 0) {
+                questionId = QuestionCatalog.select(ids, random.nextInt(count));
+            }
+            ids.clear(questionId);
+            if (catalog.isPlayable(questionId)) {
+                return questionId;
+            }
+        }
+        return null;
+    }
+
+    private void startRefill() {
+        FutureTask<BitSet> task = new FutureTask<BitSet>(new Callable<BitSet>() {
+            @Override
+            public BitSet call() throws ApplicationException {
+                return QuestionCatalog.getInstance().getPlayable(userId, tag);
+            }
+        });
+        try {
+            getRefiller().execute(task);
+            refill = task;
+        } catch (RejectedExecutionException e) {
+            // read when the queue runs empty
+            LOGGER.fine("Too many refills waiting, skipped refill for user " + userId);
+        }
+    }
+
+    private void collectRefill() throws ApplicationException {
+        Future<BitSet> finished = refill;
+        refill = null;
+        try {
+            replace(finished.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApplicationException) {
+                throw (ApplicationException) e.getCause();
+            }
+            throw new ApplicationException("Failed to refill the question queue", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.log(Level.FINE, "Interrupted while refilling the question queue", e);
+        }
+    }
+
+    /**
+     * Replaces the queued ids by fresh ones, which contain the ones still
+     * queued.
+     */
+    private void replace(BitSet playable) {
+        playable.andNot(handedOut);
+
+        // no new questions have been asked, refilling again is useless
+        exhausted = playable.cardinality() <= ids.cardinality();
+        ids = playable;
+    }
+}
@@ -9,6 +9,12 @@ import javax.faces.bean.ViewScoped;
 import javax.faces.context.FacesContext;
 import javax.servlet.http.HttpSession;
 
+import cgwap.data_access.UserDatabaseAccess;
+import cgwap.entities.User;
+import cgwap.enums.UserLevel;
+import cgwap.util.Config;
+import cgwap.util.exception_handler.ApplicationException;
+
 /**
  * SessionBean manages all methods to interact with the session. For every
  * logged in user it stores
@@ -32,6 +38,12 @@ public class SessionBean implements Serializable {
      */
     public final static String SESSION_USER_KEY = "current-user";
 
+    /**
+     * The key under which the {@link Principal} of the logged in user is
+     * stored in session.
+     */
+    public final static String SESSION_PRINCIPAL_KEY = "current-principal";
+
     // -------------------------------------------------------------------------
     // Getter / Setter
     // -------------------------------------------------------------------------
@@ -189,6 +201,105 @@ public class SessionBean implements Serializable {
 
         synchronized (session) {
             session.removeAttribute(SessionBean.SESSION_USER_KEY);
+            session.removeAttribute(SessionBean.SESSION_PRINCIPAL_KEY);
+        }
+    }
+
+    /**
+     * Returns the principal of the logged in user of a session. The principal
+     * kept in the session is used as long as it is valid, otherwise the user
+     * is read again.
+     * 
+     * @param session
+     *            - the session
+     * @param userId
+     *            - the id of the logged in user
+     * @return the principal, null if the user does not exist
+     * @throws ApplicationException
+     */
+    public static Principal getPrincipal(HttpSession session, int userId) throws ApplicationException {
+        int version = UserDatabaseAccess.getVersion(userId);
+        Object cached = session.getAttribute(SessionBean.SESSION_PRINCIPAL_KEY);
+        if (cached instanceof Principal && ((Principal) cached).isValid(userId, version, Config.PRINCIPAL_TTL)) {
+            return (Principal) cached;
+        }
+
+        User user = UserDatabaseAccess.getSummaryById(userId);
+        if (user == null) {
+            session.removeAttribute(SessionBean.SESSION_PRINCIPAL_KEY);
+            return null;
+        }
+        Principal principal = new Principal(user, version);
+        session.setAttribute(SessionBean.SESSION_PRINCIPAL_KEY, principal);
+        return principal;
+    }
+
+    /**
+     * Returns the level of the logged in user.
+     * 
+     * @return the level, the lowest one for anonymous players
+     * @throws ApplicationException
+     */
+    public UserLevel getCurrentUserLevel() throws ApplicationException {
+        int userId = this.getCurrentUserId();
+        if (userId == 0) {
+            return UserLevel.Questling;
+        }
+
+        Principal principal = getPrincipal(this.getSession(), userId);
+        if (principal == null || principal.getLevel() == null) {
+            return UserLevel.Questling;
+        }
+        return principal.getLevel();
+    }
+
+    /**
+     * Returns the searches running in the background for this session.
+     * 
+     * @return the pending searches
+     */
+    public PendingSearches getPendingSearches() {
+        return getPendingSearches(this.getSession());
+    }
+
+    /**
+     * Returns the searches running in the background for a session, creating
+     * them if necessary.
+     * 
+     * @param session
+     *            - the session
+     * @return the pending searches
+     */
+    public static PendingSearches getPendingSearches(HttpSession session) {
+        synchronized (session) {
+            PendingSearches searches = (PendingSearches) session.getAttribute(PendingSearches.SESSION_KEY);
+            if (searches == null) {
+                searches = new PendingSearches();
+                session.setAttribute(PendingSearches.SESSION_KEY, searches);
+            }
+            return searches;
+        }
+    }
+
+    /**
+     * Returns the queue of questions the logged in user may play next,
+     * creating it if the user or the tag has changed.
+     * 
+     * @param tag
+     *            - only questions with this tag, null for all questions
+     * @return the queue
+     */
+    public QuestionQueue getQuestionQueue(String tag) {
+        int userId = this.getCurrentUserId();
+        HttpSession session = this.getSession();
+
+        synchronized (session) {
+            QuestionQueue queue = (QuestionQueue) session.getAttribute(QuestionQueue.SESSION_KEY);
+            if (queue == null || !queue.isFor(userId, tag)) {
+                queue = new QuestionQueue(userId, tag);
+                session.setAttribute(QuestionQueue.SESSION_KEY, queue);
+            }
+            return queue;
         }
     }
 
@@ -1,12 +1,29 @@
 package cgwap.util.shutdown_hook;
 
+import java.io.IOException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import cgwap.data_access.CacheInvalidator;
 import cgwap.data_access.CreateScheme;
+import cgwap.data_access.QuestionCache;
+import cgwap.data_access.QuestionCatalog;
+import cgwap.data_access.QuestionWeights;
+import cgwap.data_access.TagCatalog;
 import cgwap.util.Config;
+import cgwap.util.cache.CacheSnapshot;
 import cgwap.util.database.ConnectionPool;
+import cgwap.util.database.InvalidationBus;
+import cgwap.util.europeana.EuropeanaClient;
+import cgwap.util.europeana.RequestQuota;
+import cgwap.util.europeana.SearchCache;
+import cgwap.util.europeana.SearchExecutor;
 import cgwap.util.exception_handler.ApplicationException;
+import cgwap.util.i18n.StringProvider;
+import cgwap.util.local_search.LocalSearchIndex;
+import cgwap.util.session.QuestionQueue;
 
 /**
  * This class contains all methods which have to be called at system startup and
@@ -17,6 +34,8 @@ import cgwap.util.exception_handler.ApplicationException;
  */
 public class SystemStartupShutdown {
 
+    private static final Logger LOGGER = Logger.getLogger(SystemStartupShutdown.class.getName());
+
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
     /**
@@ -25,16 +44,32 @@ public class SystemStartupShutdown {
     public static void startup() {
         // Config
         Config.init();
+        StringProvider.startup();
+        CacheSnapshot.startup();
 
         // Logging
 
         // Database
         ConnectionPool.startup();
+        QuestionCache.startup();
+        TagCatalog.startup();
+        QuestionQueue.startup();
          try {
          CreateScheme.createSchemes();
          } catch (ApplicationException e) {
          e.printStackTrace();
          }
+        QuestionCatalog.startup();
+        QuestionWeights.startup();
+        InvalidationBus.startup();
+        InvalidationBus.getInstance().addListener(new CacheInvalidator());
+
+        // Europeana
+        EuropeanaClient.startup();
+        RequestQuota.startup();
+        LocalSearchIndex.startup();
+        SearchCache.startup();
+        SearchExecutor.startup();
 
         // shutdown hook
         Thread shutdownHook = new ShutdownHook();
@@ -49,11 +84,38 @@ public class SystemStartupShutdown {
      * Performs all methods used by system's shutdown.
      */
     public static void shutdown() {
+        saveCacheSnapshot();
+        InvalidationBus.shutdown();
         ConnectionPool.shutdown();
+        QuestionCache.shutdown();
+        TagCatalog.shutdown();
+        QuestionCatalog.shutdown();
+        QuestionWeights.shutdown();
+        QuestionQueue.shutdown();
+        SearchExecutor.shutdown();
+        SearchCache.shutdown();
+        LocalSearchIndex.shutdown();
+        EuropeanaClient.shutdown();
+        CacheSnapshot.shutdown();
 
         scheduler.shutdown();
     }
 
+    /**
+     * Writes the contents of the caches, so they are warm after a restart.
+     */
+    private static void saveCacheSnapshot() {
+        CacheSnapshot.Writer snapshot = new CacheSnapshot.Writer();
+        try {
+            SearchCache.save(snapshot);
+            TagCatalog.save(snapshot);
+            QuestionCache.save(snapshot);
+            snapshot.write();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write the cache snapshot.", e);
+        }
+    }
+
     private static class ShutdownHook extends Thread {
 
         @Override
@@ -0,0 +1,363 @@
+package cgwap.util.europeana.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cgwap.util.europeana.EuropeanaClient;
+import cgwap.util.europeana.ResponseHandler;
+
+/**
+ * A local stand-in for the Europeana search API, used to test and benchmark
+ * searching without sending requests with our API key. Point REQUEST_URL at
+ * the server, e.g. http://localhost:8089/api/v2/search.json.
+ * 
+ * The stub lives in the tools source tree, so it is not deployed with the
+ * application. Sample fixtures are kept in src/tools/fixtures/europeana, the
+ * default fixtures directory when started from the project root.
+ * 
+ * Responses are read from a fixtures directory. The fixture of a search is
+ * named after its query and filters, see {@link #fixtureName(String, List)};
+ * searches without a fixture get default.json if present, otherwise a
+ * generated response. In record mode, missing fixtures are fetched from the
+ * real API once and stored.
+ * 
+ * Responses can be delayed and a share of them can fail with 503, to test
+ * timeouts and error handling. Delayed responses are sent by a scheduler, so
+ * latency does not tie up the server's threads.
+ * 
+ */
+public class EuropeanaStubServer {
+
+    private static final Logger LOGGER = Logger.getLogger(EuropeanaStubServer.class.getName());
+
+    private static final String DEFAULT_FIXTURE = "default.json";
+
+    private static final String DEFAULT_FIXTURES = "src/tools/fixtures/europeana";
+
+    private static final int GENERATED_ITEMS = 12;
+
+    private final File fixtures;
+    private final int latencyMillis;
+    private final int jitterMillis;
+    private final double errorRate;
+    private final EuropeanaClient recorder;
+
+    private final ConcurrentMap<String, byte[]> responses = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private HttpServer server;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a server.
+     * 
+     * @param fixtures
+     *            directory of the recorded responses
+     * @param latencyMillis
+     *            fixed delay of every response
+     * @param jitterMillis
+     *            maximal random delay added to every response
+     * @param errorRate
+     *            share of requests answered with 503, between 0 and 1
+     * @param recorder
+     *            client of the real API used to record missing fixtures,
+     *            null to never record
+     */
+    public EuropeanaStubServer(File fixtures, int latencyMillis, int jitterMillis, double errorRate,
+            EuropeanaClient recorder) {
+        this.fixtures = fixtures;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Starts the server.
+     * 
+     * @param port
+     *            the port to listen on, 0 for any free port
+     * @param threads
+     *            number of threads handling requests
+     * @return the port the server listens on
+     * @throws IOException
+     *             Thrown when the port could not be bound.
+     */
+    public int start(int port, int threads) throws IOException {
+        // headers and body are written separately, without TCP_NODELAY every
+        // response waits for the client's delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        scheduler = Executors.newScheduledThreadPool(threads);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.createContext("/", new SearchHandler());
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            scheduler.shutdownNow();
+            LOGGER.info("Stub requests: " + requests.get() + ", injected errors: " + errors.get());
+        }
+    }
+
+    /**
+     * Returns the file name of the fixture of a search. The query is lower
+     * cased and its whitespace collapsed, the filters are sorted, so the
+     * spelling of a search does not matter.
+     * 
+     * @param query
+     *            the query
+     * @param filters
+     *            the values of the qf parameters
+     * @return the file name
+     */
+    public static String fixtureName(String query, List<String> filters) {
+        StringBuilder name = new StringBuilder(query == null ? "" : query.trim().replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ROOT));
+        List<String> sorted = new ArrayList<String>(filters);
+        Collections.sort(sorted);
+        for (String filter : sorted) {
+            name.append('|').append(filter);
+        }
+        try {
+            return URLEncoder.encode(name.toString(), "UTF-8") + ".json";
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] getResponse(String rawQuery) throws IOException {
+        String query = "";
+        List<String> filters = new ArrayList<String>();
+        // the parameters to send when recording, the recorder has its own key
+        StringBuilder parameters = new StringBuilder();
+        for (String parameter : rawQuery.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = parameter.substring(0, separator);
+            if (!name.equals("wskey")) {
+                parameters.append('&').append(parameter);
+            }
+            String value = URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+            if (name.equals("query")) {
+                query = value;
+            } else if (name.equals("qf")) {
+                filters.add(value);
+            }
+        }
+
+        String name = fixtureName(query, filters);
+        byte[] response = responses.get(name);
+        if (response == null) {
+            response = loadFixture(name, parameters.toString());
+            responses.putIfAbsent(name, response);
+        }
+        return response;
+    }
+
+    private byte[] loadFixture(String name, String parameters) throws IOException {
+        File fixture = new File(fixtures, name);
+        if (fixture.canRead()) {
+            return Files.readAllBytes(fixture.toPath());
+        }
+
+        if (recorder != null) {
+            byte[] recorded = recorder.get(parameters, new ResponseHandler<byte[]>() {
+                @Override
+                public byte[] handle(InputStream body) throws IOException {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = body.read(buffer)) != -1) {
+                        bytes.write(buffer, 0, read);
+                    }
+                    return bytes.toByteArray();
+                }
+            });
+            Files.write(fixture.toPath(), recorded);
+            LOGGER.info("Recorded fixture " + name);
+            return recorded;
+        }
+
+        File defaultFixture = new File(fixtures, DEFAULT_FIXTURE);
+        if (defaultFixture.canRead()) {
+            return Files.readAllBytes(defaultFixture.toPath());
+        }
+        return generate(name);
+    }
+
+    /**
+     * Generates a response with the fields read by the search result parser.
+     */
+    private static byte[] generate(String name) throws UnsupportedEncodingException {
+        String[] types = { "IMAGE", "TEXT", "VIDEO", "SOUND" };
+        Random random = new Random(name.hashCode());
+        StringBuilder json = new StringBuilder();
+        json.append("{\"success\":true,\"itemsCount\":").append(GENERATED_ITEMS);
+        json.append(",\"totalResults\":").append(GENERATED_ITEMS).append(",\"items\":[");
+        for (int i = 0; i < GENERATED_ITEMS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String id = "/stub/" + Math.abs(random.nextInt());
+            json.append("{\"id\":\"").append(id).append("\"");
+            json.append(",\"title\":[\"Stub result ").append(i + 1).append("\"]");
+            json.append(",\"edmPreview\":[\"http://localhost/preview").append(id).append(".jpg\"]");
+            json.append(",\"type\":\"").append(types[random.nextInt(types.length)]).append("\"");
+            json.append(",\"dcDescription\":[\"Generated by the stub server.\"]}");
+        }
+        json.append("]}");
+        return json.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream output = new GZIPOutputStream(compressed);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, boolean gzip) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream output = exchange.getResponseBody();
+            try {
+                output.write(body);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to send response.", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private class SearchHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            final int status;
+            byte[] body;
+            if (random.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                status = 503;
+                body = "{\"success\":false,\"error\":\"Injected error\"}".getBytes("UTF-8");
+            } else {
+                // the API key is part of the base URL, so the parameters may
+                // start after the first & instead of a ?
+                String uri = exchange.getRequestURI().getRawPath();
+                String rawQuery = exchange.getRequestURI().getRawQuery();
+                if (rawQuery == null) {
+                    int separator = uri.indexOf('&');
+                    rawQuery = separator < 0 ? "" : uri.substring(separator + 1);
+                }
+                try {
+                    status = 200;
+                    body = getResponse(rawQuery);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load fixture.", e);
+                    send(exchange, 500, new byte[0], false);
+                    return;
+                }
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            final boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            final byte[] response = gzip ? gzip(body) : body;
+
+            long delay = latencyMillis + (jitterMillis > 0 ? random.nextInt(jitterMillis + 1) : 0);
+            if (delay <= 0) {
+                send(exchange, status, response, gzip);
+            } else {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send(exchange, status, response, gzip);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Starts a stub server until the process is stopped.
+     * 
+     * Arguments: port, fixtures directory, latency in ms, jitter in ms, error
+     * rate, and optionally the base URL of the real API including the key to
+     * record missing fixtures.
+     * 
+     * @param args
+     *            the arguments
+     * @throws IOException
+     *             Thrown when the server could not be started.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        File fixtures = new File(args.length > 1 ? args[1] : DEFAULT_FIXTURES);
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int jitter = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        EuropeanaClient recorder = args.length > 5 ? new EuropeanaClient(args[5], 5000, 10000, 20000, 4) : null;
+
+        final EuropeanaStubServer server = new EuropeanaStubServer(fixtures, latency, jitter, errorRate, recorder);
+        port = server.start(port, 32);
+        LOGGER.info("Europeana stub listening on port " + port + ", fixtures in " + fixtures.getAbsolutePath());
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+    }
+}